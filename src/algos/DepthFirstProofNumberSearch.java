@@ -0,0 +1,296 @@
+package algos;
+
+import game.Game;
+import main.collections.FastArrayList;
+import other.AI;
+import other.context.Context;
+import other.move.Move;
+import utils.EvaluationFunctions;
+
+import static utils.SearchStatistics.currentThreadAllocatedBytes;
+import static utils.SearchStatistics.recordSearch;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Depth-first proof-number search (df-pn) for the player the AI is initialised for.
+ * Only the current path is kept on the stack; proof and disproof numbers of all other
+ * positions live in a direct-mapped transposition table of fixed size, so memory use
+ * does not grow with the length of the proof. Terminal positions are scored with the
+ * same check as the pnsEval function of PNS.txt.
+ */
+public class DepthFirstProofNumberSearch extends AI {
+    private static final int INF = Integer.MAX_VALUE;
+    private static final int DEFAULT_TABLE_BITS = 20;
+
+    // 1 + epsilon trick: children are searched a little past the second best one, which avoids
+    // switching back and forth between siblings with close proof numbers
+    private static final double EPSILON = 0.25;
+
+    protected int playerId = -1;
+
+    // Two-way set-associative transposition table indexed by the low bits of Ludii's full hash,
+    // a key of 0 marks an empty entry
+    private int tableBits = DEFAULT_TABLE_BITS;
+    private long[] keys;
+    private int[] proofNumbers;
+    private int[] disproofNumbers;
+
+    // Positions on the current path, a move back into one of them is scored as a draw. A position solved
+    // only through such a repetition may not be solved when reached by another path, so it is not stored.
+    private final Set<Long> path = new HashSet<>();
+
+    // Proof and disproof numbers of the position of the last search call, for its parent when they were not stored
+    private int searchedProof;
+    private int searchedDisproof;
+
+    private long stopTime;
+    private int maxIts;
+    private int numIterations;
+    private long totalNodeCount;
+    private int rootProofNumber;
+    private int rootDisproofNumber;
+
+    public DepthFirstProofNumberSearch() {
+        this.friendlyName = "DF-PN";
+    }
+
+    // Table size as a power of two, each entry takes 16 bytes
+    public void setTableBits(int tableBits) {
+        this.tableBits = tableBits;
+    }
+
+    public boolean isRootProven() {
+        return rootProofNumber == 0;
+    }
+
+    public boolean isRootDisproven() {
+        return rootDisproofNumber == 0;
+    }
+
+    @Override
+    public Move selectAction(final Game game, final Context context, final double maxSeconds, final int maxIterations, final int maxDepth) {
+        final long allocatedAtStart = currentThreadAllocatedBytes();
+        long startTime = System.currentTimeMillis();
+        stopTime = (maxSeconds > 0.0) ? startTime + (long) (maxSeconds * 1000L) : Long.MAX_VALUE;
+        maxIts = (maxIterations >= 0) ? maxIterations : Integer.MAX_VALUE;
+        numIterations = 0;
+        totalNodeCount = 0;
+        path.clear();
+
+        final long rootHash = context.state().fullHash();
+        search(context, rootHash, INF, INF);
+        // A root solved only through a repetition is not in the table, and is not reported as solved
+        int slot = find(rootHash);
+        rootProofNumber = slot >= 0 ? proofNumbers[slot] : 1;
+        rootDisproofNumber = slot >= 0 ? disproofNumbers[slot] : 1;
+
+        long searchTime = System.currentTimeMillis() - startTime;
+        if (rootProofNumber == 0 || rootDisproofNumber == 0) {
+            String result = rootProofNumber == 0 ? "proven" : "disproven";
+            System.out.println("Tree was " + result + " in " + searchTime / 1000 + " s (" + totalNodeCount + " nodes).");
+        }
+        // The table is all the search retains, its occupied entries count as the peak number of nodes
+        int storedPositions = 0;
+        for (long key : keys) {
+            if (key != 0) {
+                storedPositions++;
+            }
+        }
+        recordSearch(friendlyName, numIterations, totalNodeCount, searchTime, 16L * keys.length, storedPositions,
+                allocatedAtStart >= 0 ? currentThreadAllocatedBytes() - allocatedAtStart : -1, storedPositions);
+
+        // Play the child closest to a proof: smallest proof number, then largest disproof number
+        final FastArrayList<Move> legalMoves = context.game().moves(context).moves();
+        Move bestMove = null;
+        int bestProof = INF;
+        int bestDisproof = -1;
+        for (Move move : legalMoves) {
+            Context childContext = new Context(context);
+            childContext.game().apply(childContext, move);
+            long hash = childContext.state().fullHash();
+            int childSlot = find(hash);
+            int proof = childSlot >= 0 ? proofNumbers[childSlot] : 1;
+            int disproof = childSlot >= 0 ? disproofNumbers[childSlot] : 1;
+            if (bestMove == null || proof < bestProof || (proof == bestProof && disproof > bestDisproof)) {
+                bestMove = move;
+                bestProof = proof;
+                bestDisproof = disproof;
+            }
+        }
+        return bestMove;
+    }
+
+    // Expands the position until its proof number reaches proofThreshold or its disproof number reaches disproofThreshold.
+    // Returns whether it was solved only through a repetition on the current path, in which case it is not stored.
+    private boolean search(final Context context, final long hash, final int proofThreshold, final int disproofThreshold) {
+        numIterations++;
+        double proofValue = EvaluationFunctions.proofValue(context, playerId);
+        if (proofValue >= 0) {
+            searchedProof = proofValue == 1.0 ? 0 : INF;
+            searchedDisproof = proofValue == 1.0 ? INF : 0;
+            store(hash, searchedProof, searchedDisproof);
+            return false;
+        }
+
+        final boolean orNode = context.state().mover() == playerId;
+        final FastArrayList<Move> legalMoves = context.game().moves(context).moves();
+        final int numChildren = legalMoves.size();
+        final long[] childHashes = new long[numChildren];
+        for (int i = 0; i < numChildren; i++) {
+            Context childContext = new Context(context);
+            childContext.game().apply(childContext, legalMoves.get(i));
+            childHashes[i] = childContext.state().fullHash();
+        }
+        totalNodeCount += numChildren;
+
+        // Solved values of children that only hold on the current path, -1 for the others
+        int[] pathProofs = null;
+        int[] pathDisproofs = null;
+        int proof;
+        int disproof;
+        boolean pathDependent;
+
+        path.add(hash);
+        while (true) {
+            // For an orNode the proof number is the minimum over the children and the disproof number the sum,
+            // for an andNode the other way around. Children not in the table start at 1 / 1.
+            long sum = 0;
+            int min = INF;
+            int best = -1;
+            int secondMin = INF;
+            int bestSummed = 0;
+            boolean repetition = false;
+            for (int i = 0; i < numChildren; i++) {
+                int childProof;
+                int childDisproof;
+                if (path.contains(childHashes[i])) {
+                    childProof = INF;
+                    childDisproof = 0;
+                    repetition = true;
+                } else if (pathProofs != null && pathProofs[i] >= 0) {
+                    childProof = pathProofs[i];
+                    childDisproof = pathDisproofs[i];
+                    repetition = true;
+                } else {
+                    int slot = find(childHashes[i]);
+                    childProof = slot >= 0 ? proofNumbers[slot] : 1;
+                    childDisproof = slot >= 0 ? disproofNumbers[slot] : 1;
+                }
+                int minimised = orNode ? childProof : childDisproof;
+                int summed = orNode ? childDisproof : childProof;
+                sum = Math.min(INF, sum + summed);
+                if (minimised < min) {
+                    secondMin = min;
+                    min = minimised;
+                    best = i;
+                    bestSummed = summed;
+                } else if (minimised < secondMin) {
+                    secondMin = minimised;
+                }
+            }
+
+            proof = orNode ? min : (int) sum;
+            disproof = orNode ? (int) sum : min;
+            if (numChildren == 0) {
+                proof = INF;
+                disproof = 0;
+            }
+            // Unsolved values are only a guide to the search, so they are stored even if a repetition went into them
+            pathDependent = repetition && (proof == 0 || disproof == 0);
+            if (!pathDependent) {
+                store(hash, proof, disproof);
+            }
+            if (proof >= proofThreshold || disproof >= disproofThreshold || best < 0 || outOfBudget()) {
+                break;
+            }
+
+            // The best child may grow its minimised number up to just past (1 + epsilon) times the second best child's,
+            // and its summed number by whatever the node still has left below its own threshold
+            long secondThreshold = Math.max((long) secondMin + 1, (long) Math.ceil(secondMin * (1.0 + EPSILON)));
+            int minimisedThreshold = (int) Math.min(orNode ? proofThreshold : disproofThreshold, secondThreshold);
+            int summedThreshold = (int) Math.min(INF, (long) (orNode ? disproofThreshold : proofThreshold) - sum + bestSummed);
+
+            Context childContext = new Context(context);
+            childContext.game().apply(childContext, legalMoves.get(best));
+            boolean childPathDependent = orNode
+                    ? search(childContext, childHashes[best], minimisedThreshold, summedThreshold)
+                    : search(childContext, childHashes[best], summedThreshold, minimisedThreshold);
+            if (childPathDependent) {
+                if (pathProofs == null) {
+                    pathProofs = new int[numChildren];
+                    pathDisproofs = new int[numChildren];
+                    Arrays.fill(pathProofs, -1);
+                }
+                pathProofs[best] = searchedProof;
+                pathDisproofs[best] = searchedDisproof;
+            } else if (pathProofs != null) {
+                pathProofs[best] = -1;
+            }
+        }
+        path.remove(hash);
+        searchedProof = proof;
+        searchedDisproof = disproof;
+        return pathDependent;
+    }
+
+    private boolean outOfBudget() {
+        return numIterations >= maxIts || System.currentTimeMillis() >= stopTime || wantsInterrupt;
+    }
+
+    // First of the two entries a position can be stored in
+    private int bucketOf(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & (keys.length - 2);
+    }
+
+    private int find(long hash) {
+        int bucket = bucketOf(hash);
+        if (keys[bucket] == hash) {
+            return bucket;
+        }
+        return keys[bucket + 1] == hash ? bucket + 1 : -1;
+    }
+
+    // Takes the entry of the same position, else an empty one, else one that is not solved, else the first
+    private void store(long hash, int proof, int disproof) {
+        int slot = find(hash);
+        if (slot < 0) {
+            int bucket = bucketOf(hash);
+            slot = bucket;
+            if (keys[bucket] != 0 && (keys[bucket + 1] == 0 || !isSolved(bucket + 1) && isSolved(bucket))) {
+                slot = bucket + 1;
+            }
+        }
+        keys[slot] = hash;
+        proofNumbers[slot] = proof;
+        disproofNumbers[slot] = disproof;
+    }
+
+    private boolean isSolved(int slot) {
+        return proofNumbers[slot] == 0 || disproofNumbers[slot] == 0;
+    }
+
+    @Override
+    public void initAI(final Game game, final int playerID) {
+        this.playerId = playerID;
+        keys = new long[1 << tableBits];
+        proofNumbers = new int[1 << tableBits];
+        disproofNumbers = new int[1 << tableBits];
+    }
+
+    @Override
+    public void closeAI() {
+        keys = null;
+        proofNumbers = null;
+        disproofNumbers = null;
+    }
+
+    public boolean supportsGame(final Game game) {
+        if (game.isStochasticGame())
+            return false;
+
+        return game.isAlternatingMoveGame();
+    }
+}
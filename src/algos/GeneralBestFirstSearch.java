@@ -5,17 +5,50 @@ import main.collections.FastArrayList;
 import other.AI;
 import other.context.Context;
 import other.move.Move;
+import other.trial.Trial;
+import parser.AttributeLayout;
 import parser.ExecutableSearchAlgorithm;
 import parser.LudiiNode;
-import utils.GlobalVariableRegistry;
+import parser.Node;
+import parser.TreeArena;
 
+import static utils.SearchStatistics.currentThreadAllocatedBytes;
+import static utils.SearchStatistics.recordEvictions;
 import static utils.SearchStatistics.recordSearch;
 
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class GeneralBestFirstSearch extends AI {
+    public enum EvictionPolicy {
+        LEAST_VISITED,        // evict the subtrees with the fewest visits
+        LARGEST_PROOF_NUMBER  // evict the subtrees with the largest proof (below orNodes) or disproof (below andNodes) number
+    }
+
+    public enum Parallelism {
+        ROOT, // every thread searches its own tree, the root children are merged at the end
+        TREE, // all threads search one shared tree, spread over it by virtual loss
+        PIPELINE // the calling thread selects batches of leaves with virtual loss, the other threads evaluate them
+    }
+
+    // Share of the node budget the tree is cut back to once it is reached
+    private static final double EVICTION_TARGET = 0.75;
+
     protected int playerId = -1;
     private final ExecutableSearchAlgorithm searchAlgorithm;
 
@@ -23,24 +56,209 @@ public class GeneralBestFirstSearch extends AI {
     private int maxDepthEncountered = 0;
     private int totalNodeCount = 0;
     private int totalNodeVisits = 0; 
+    private int peakNodes = 0;
+
+    // Store the tree in a struct-of-arrays TreeArena instead of LudiiNode objects
+    private boolean useArena = false;
+
+    // Create children as (parent, move) stubs whose context is only built when first needed
+    private boolean lazyExpansion = false;
+
+    // Keep contexts only on every checkpointInterval-th ply (0 keeps all of them) and rebuild the rest
+    // by replaying moves; maxCheckpoints bounds how many checkpoint contexts one search may hold (0 = no bound)
+    private int checkpointInterval = 0;
+    private int maxCheckpoints = 0;
+    private int numCheckpoints = 0;
+
+    // Keep the tree between calls and continue from the node reached by the moves played since
+    private boolean reuseTree = false;
+    private LudiiNode previousRoot = null;
+    private TreeArena previousTree = null;
+
+    // Link children that reach an already known position (by Ludii's full hash) to the existing node.
+    // Only nodes at the same depth are merged, which keeps the graph acyclic. Object tree only.
+    private boolean useTranspositions = false;
+    private final Map<Long, LudiiNode> transpositions = new HashMap<>();
+
+    // Node budget per search (0 = unbounded). When the tree reaches it, whole subtrees are evicted by the policy
+    // and their roots turn back into unexpanded leaves that keep their backed-up values
+    private int maxNodes = 0;
+    private EvictionPolicy evictionPolicy = EvictionPolicy.LEAST_VISITED;
+    private int liveNodes = 0;
+    private int evictedSubtrees = 0;
+    private long evictedNodes = 0;
+
+    // PN² (0 = off): every expanded first-level leaf is valued by a throwaway second-level search of up to
+    // secondLevelNodes nodes below it, whose root children values are copied into the leaf's children. Object tree only.
+    private int secondLevelNodes = 0;
+    private boolean inSecondLevel = false;
+
+    // Root parallelism (1 = off): numThreads workers each search an independent tree from their own copy of the
+    // position, with their own global variables, and the statistics of their root children are merged before
+    // FinalMoveSelection. Every worker gets the full time and iteration budget.
+    private int numThreads = 1;
+    private GeneralBestFirstSearch[] workers;
+    private ExecutorService workerPool;
+    private int poolSize = 0;
+    private GeneralBestFirstSearch coordinator; // set on root-parallel workers, which stop once it is interrupted
+    private boolean recordSearches = true; // off on root-parallel workers, whose searches the coordinator records as one
+    private int lastIterations = 0; // of the last search, summed over the workers
+    private long lastAllocatedBytes = 0; // by the searching thread during the last search, -1 if unknown
+
+    // Tree parallelism shares one object tree between the threads, and refuses the arena, lazy expansion, released
+    // contexts, transpositions, eviction and PN². Each thread adds virtualLossVisits to the visitCount of the nodes
+    // on its path and moves their valueEstimate against the player choosing them by virtualLossValue, until it
+    // backpropagates. The offsets are kept apart from the attributes and only SelectNodes read them, so the Sets
+    // of other threads' backpropagations still update running means from the real visits and values.
+    private Parallelism parallelism = Parallelism.ROOT;
+    private double virtualLossVisits = 1;
+    private double virtualLossValue = 0;
+    private int virtualLossSlot = -1; // of valueEstimate, resolved when a shared search starts
+
+    // Pipeline parallelism: leaves are selected in batches of batchSize, and up to queueDepth batches are evaluated
+    // while the next one is selected. Batches are backpropagated in the order they were selected, each leaf with
+    // the globals its Evaluation Set. Refuses the same settings as tree parallelism, and like it keeps the virtual
+    // loss of the leaves in flight where only SelectNodes read it.
+    private int batchSize = 8;
+    private int queueDepth = 2;
 
     public GeneralBestFirstSearch(ExecutableSearchAlgorithm searchAlgorithm) {
         this.searchAlgorithm = searchAlgorithm;
         this.friendlyName = searchAlgorithm.getName();
     }
 
+    public void setUseArena(boolean useArena) {
+        this.useArena = useArena;
+    }
+
+    public void setLazyExpansion(boolean lazyExpansion) {
+        this.lazyExpansion = lazyExpansion;
+    }
+
+    public void setCheckpointInterval(int plies) {
+        this.checkpointInterval = plies;
+    }
+
+    public void setMaxCheckpoints(int maxCheckpoints) {
+        this.maxCheckpoints = maxCheckpoints;
+    }
+
+    public void setReuseTree(boolean reuseTree) {
+        this.reuseTree = reuseTree;
+    }
+
+    public void setUseTranspositions(boolean useTranspositions) {
+        this.useTranspositions = useTranspositions;
+    }
+
+    public void setMaxNodes(int maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    public void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+        this.evictionPolicy = evictionPolicy;
+    }
+
+    public void setSecondLevelNodes(int secondLevelNodes) {
+        this.secondLevelNodes = secondLevelNodes;
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    public void setParallelism(Parallelism parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public void setVirtualLoss(double visits, double value) {
+        this.virtualLossVisits = visits;
+        this.virtualLossValue = value;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public void setQueueDepth(int queueDepth) {
+        this.queueDepth = Math.max(1, queueDepth);
+    }
+
+    public int getLastIterations() {
+        return lastIterations;
+    }
+
     @Override
     public Move selectAction(final Game game, final Context context, final double maxSeconds, final int maxIterations, final int maxDepth) {
-        final LudiiNode root = new LudiiNode(null, context, playerId, null);
+        if (numThreads > 1) {
+            switch (parallelism) {
+                case TREE:
+                    checkSharedTreeSettings();
+                    return selectActionTreeParallel(context, maxSeconds, maxIterations);
+                case PIPELINE:
+                    checkSharedTreeSettings();
+                    return selectActionPipeline(context, maxSeconds, maxIterations);
+                default:
+                    return selectActionRootParallel(context, maxSeconds, maxIterations);
+            }
+        }
+        if (useArena) {
+            return selectActionArena(context, maxSeconds, maxIterations);
+        }
+
+        final LudiiNode root = searchTree(context, maxSeconds, maxIterations);
+
+        // Perform final move selection
+        LudiiNode bestChild;
+        if (searchAlgorithm.getFinalMoveSelection() != null) {
+            bestChild = searchAlgorithm.getFinalMoveSelection().execute(root);
+        } else {
+            bestChild = searchAlgorithm.getSelection().execute(root);
+        }
+
+        // Log tree size information to file
+//        logTreeSizeInfo(System.currentTimeMillis() - startTime);
+        finishSearch(root);
+
+        // Fallback to first child if bestChild is null or has no move
+        if (bestChild == null || bestChild.getMoveFromParent() == null) {
+            if (!root.getChildren().isEmpty()) {
+                return root.getChildren().get(0).getMoveFromParent();
+            }
+        }
+
+        return bestChild.getMoveFromParent();
+    }
+
+    // Tree and pipeline parallelism share one plain object tree, so the settings that change its shape are refused
+    private void checkSharedTreeSettings() {
+        String unsupported = useArena ? "useArena"
+                : lazyExpansion ? "lazyExpansion"
+                : checkpointInterval > 0 ? "checkpointInterval"
+                : useTranspositions ? "useTranspositions"
+                : maxNodes > 0 ? "maxNodes"
+                : secondLevelNodes > 0 ? "secondLevelNodes"
+                : null;
+        if (unsupported != null) {
+            throw new IllegalStateException(parallelism + " parallelism does not support " + unsupported);
+        }
+    }
+
+    // Runs the iterations of one search on the object tree and returns its root
+    private LudiiNode searchTree(final Context context, final double maxSeconds, final int maxIterations) {
+        // A transposition's move is only valid from its first parent, so a DAG is not carried over to the next move
+        LudiiNode reused = reuseTree && !useTranspositions ? reuseRoot(context) : null;
+        final LudiiNode root = reused != null ? reused
+                : new LudiiNode(reuseTree ? new Context(context) : context, playerId, searchAlgorithm.getLayout());
 
         // Initialize search-specific global variables
-        GlobalVariableRegistry.createInstanceSpace(root.getSearchId(), searchAlgorithm.getGlobalVariables());
+        root.getFrame().reset(searchAlgorithm.getInitialGlobals());
 
+        final long allocatedAtStart = currentThreadAllocatedBytes();
         long startTime = System.currentTimeMillis();
         final long stopTime = (maxSeconds > 0.0) ? startTime + (long) (maxSeconds * 1000L) : Long.MAX_VALUE;
         final int maxIts = (maxIterations >= 0) ? maxIterations : Integer.MAX_VALUE;
         int numIterations = 0;
-        LudiiNode current = root;
 
         Runtime runtime = Runtime.getRuntime();
 
@@ -48,10 +266,16 @@ public class GeneralBestFirstSearch extends AI {
         maxDepthEncountered = 0;
         totalNodeCount = 0;
         totalNodeVisits = 0;
+        numCheckpoints = 0;
+        transpositions.clear();
+        liveNodes = reused != null ? root.subtreeSize() : 1;
+        peakNodes = liveNodes;
+        evictedSubtrees = 0;
+        evictedNodes = 0;
 
         long lastPrintTime = System.currentTimeMillis();
 
-        while (numIterations < maxIts && (System.currentTimeMillis() < stopTime && !wantsInterrupt)) {
+        while (numIterations < maxIts && (System.currentTimeMillis() < stopTime && !isInterrupted())) {
 
             // comment in to Log root proof number, disproof number, max depth, and memory usage (useful for tracking PNS position proofs)
 //            long currentTime = System.currentTimeMillis();
@@ -74,36 +298,40 @@ public class GeneralBestFirstSearch extends AI {
 //            }
 
 
-            if (root.getValue("proofNumber") == 0.0 || root.getValue("disproofNumber") == 0.0) {
+            if (root.getProofNumber() == 0.0 || root.getDisproofNumber() == 0.0) {
                 long searchTime = System.currentTimeMillis() - startTime;
-                String result = root.getValue("proofNumber") == 0.0 ? "proven" : "disproven";
-                System.out.println("Tree was " + result + " in " + searchTime / 1000 + " s.");
+                String result = root.getProofNumber() == 0.0 ? "proven" : "disproven";
+                System.out.println("Tree was " + result + " in " + searchTime / 1000 + " s (" + totalNodeCount + " nodes).");
                 break;
             }
 
-            while (!current.getContext().trial().over()) {
-                current = searchAlgorithm.getSelection().execute(current);
-                totalNodeVisits++; // Count each node visit
-                if (current.getChildren().isEmpty()) {
-                    expandNode(current);
-                    // Track total nodes and maximum depth
-                    maxDepthEncountered = Math.max(maxDepthEncountered, current.getDepth());
-                    break;
-                }
-            }
-            current = searchAlgorithm.getEvaluation().execute(current);
-            current = searchAlgorithm.getBackpropagation().execute(current);
-
+            iterate(root, stopTime);
             numIterations++;
+            peakNodes = Math.max(peakNodes, liveNodes);
+
+            if (maxNodes > 0 && liveNodes >= maxNodes) {
+                evictSubtrees(root);
+            }
         }
 
         long searchTime = System.currentTimeMillis() - startTime;
-        recordSearch(
-            searchAlgorithm.getName(),
-            totalNodeVisits,
-            totalNodeCount,
-            searchTime
-        );
+        lastAllocatedBytes = allocatedSince(allocatedAtStart);
+        if (recordSearches) {
+            final Node.SubtreeSize size = root.measureSubtree();
+            recordSearch(
+                searchAlgorithm.getName(),
+                totalNodeVisits,
+                totalNodeCount,
+                searchTime,
+                size.bytes,
+                size.nodes,
+                lastAllocatedBytes,
+                peakNodes
+            );
+            if (evictedSubtrees > 0) {
+                recordEvictions(searchAlgorithm.getName(), evictedSubtrees, evictedNodes);
+            }
+        }
 
         // comment in to Log root proof number, disproof number, max depth, and memory usage (useful for tracking PNS position proofs)
 //        double rootProofNumber = root.getValue("proofNumber");
@@ -117,37 +345,1015 @@ public class GeneralBestFirstSearch extends AI {
 //                numIterations, rootProofNumber, rootDisproofNumber, maxDepthEncountered, totalMemory, usedMemory, freeMemory
 //        );
 
-        // Perform final move selection
+        lastIterations = numIterations;
+        return root;
+    }
+
+    // Keeps the tree for the next move
+    private void finishSearch(final LudiiNode root) {
+        transpositions.clear();
+        if (reuseTree && !useTranspositions) {
+            previousRoot = root;
+        }
+    }
+
+    // One selection, expansion, evaluation and backpropagation pass from the root
+    private void iterate(final LudiiNode root, final long stopTime) {
+        LudiiNode current = root;
+        while (!current.isTerminal()) {
+            current = searchAlgorithm.getSelection().execute(current);
+            totalNodeVisits++; // Count each node visit
+            if (current.getChildren().isEmpty()) {
+                expandNode(current);
+                if (secondLevelNodes > 0 && !inSecondLevel) {
+                    valueChildrenBySecondLevel(current, stopTime);
+                }
+                // Track total nodes and maximum depth
+                maxDepthEncountered = Math.max(maxDepthEncountered, current.getDepth());
+                break;
+            }
+        }
+        current = searchAlgorithm.getEvaluation().execute(current);
+        if (checkpointInterval > 0 && !useTranspositions && !inSecondLevel) {
+            retainOrReleaseContext(current);
+        }
+        searchAlgorithm.getBackpropagation().execute(current);
+    }
+
+    // Runs the same compiled stages on a separate tree rooted at the leaf's position, then drops that tree.
+    // Both trees expand the legal moves in the same order, so the children match by index.
+    private void valueChildrenBySecondLevel(final LudiiNode leaf, final long stopTime) {
+        final LudiiNode secondRoot = new LudiiNode(leaf.getContext(), playerId, searchAlgorithm.getLayout());
+        secondRoot.getFrame().reset(searchAlgorithm.getInitialGlobals());
+        inSecondLevel = true;
+
+        // Iterations are bounded as well, since selecting terminal nodes does not grow the tree
+        final int firstNodeCount = totalNodeCount;
+        for (int i = 0; i < secondLevelNodes && totalNodeCount - firstNodeCount < secondLevelNodes; i++) {
+            if (System.currentTimeMillis() >= stopTime || isInterrupted()) {
+                break;
+            }
+            if (secondRoot.getProofNumber() == 0.0 || secondRoot.getDisproofNumber() == 0.0) {
+                break;
+            }
+            iterate(secondRoot, stopTime);
+        }
+
+        inSecondLevel = false;
+        peakNodes = Math.max(peakNodes, liveNodes + totalNodeCount - firstNodeCount);
+
+        List<LudiiNode> children = leaf.getChildren();
+        List<LudiiNode> secondChildren = secondRoot.getChildren();
+        for (int i = 0; i < children.size() && i < secondChildren.size(); i++) {
+            children.get(i).copyValues(secondChildren.get(i));
+        }
+    }
+
+    private Move selectActionArena(final Context context, final double maxSeconds, final int maxIterations) {
+        final TreeArena tree = searchArena(context, maxSeconds, maxIterations);
+        final int root = 0;
+
+        int bestChild;
+        if (searchAlgorithm.getFinalMoveSelection() != null) {
+            bestChild = searchAlgorithm.getFinalMoveSelection().execute(tree, root);
+        } else {
+            bestChild = searchAlgorithm.getSelection().execute(tree, root);
+        }
+
+        finishSearch(tree);
+
+        // Fallback to first child if bestChild is missing or has no move
+        if ((bestChild < 0 || tree.getMove(bestChild) == null) && tree.getChildCount(root) > 0) {
+            return tree.getMove(tree.getFirstChild(root));
+        }
+
+        return bestChild >= 0 ? tree.getMove(bestChild) : null;
+    }
+
+    // Runs the iterations of one search on an arena, whose root is always its first node, even after eviction
+    private TreeArena searchArena(final Context context, final double maxSeconds, final int maxIterations) {
+        TreeArena reused = reuseTree ? reuseTree(context) : null;
+        TreeArena tree = reused != null ? reused : new TreeArena(searchAlgorithm.getLayout(), playerId);
+        final int root = reused != null ? 0 : tree.addRoot(reuseTree ? new Context(context) : context);
+
+        tree.getFrame().reset(searchAlgorithm.getInitialGlobals());
+
+        final long allocatedAtStart = currentThreadAllocatedBytes();
+        long startTime = System.currentTimeMillis();
+        final long stopTime = (maxSeconds > 0.0) ? startTime + (long) (maxSeconds * 1000L) : Long.MAX_VALUE;
+        final int maxIts = (maxIterations >= 0) ? maxIterations : Integer.MAX_VALUE;
+        int numIterations = 0;
+        int current = root;
+
+        maxDepthEncountered = 0;
+        totalNodeCount = 0;
+        totalNodeVisits = 0;
+        numCheckpoints = 0;
+        evictedSubtrees = 0;
+        evictedNodes = 0;
+        peakNodes = tree.size();
+
+        while (numIterations < maxIts && (System.currentTimeMillis() < stopTime && !isInterrupted())) {
+            if (tree.getProofNumber(root) == 0.0 || tree.getDisproofNumber(root) == 0.0) {
+                long searchTime = System.currentTimeMillis() - startTime;
+                String result = tree.getProofNumber(root) == 0.0 ? "proven" : "disproven";
+                System.out.println("Tree was " + result + " in " + searchTime / 1000 + " s (" + totalNodeCount + " nodes).");
+                break;
+            }
+
+            while (!tree.isTerminal(current)) {
+                current = searchAlgorithm.getSelection().execute(tree, current);
+                totalNodeVisits++;
+                if (tree.getChildCount(current) == 0) {
+                    expandNode(tree, current);
+                    maxDepthEncountered = Math.max(maxDepthEncountered, tree.getDepth(current));
+                    break;
+                }
+            }
+            current = searchAlgorithm.getEvaluation().execute(tree, current);
+            if (checkpointInterval > 0) {
+                retainOrReleaseContext(tree, current);
+            }
+            current = searchAlgorithm.getBackpropagation().execute(tree, current);
+
+            numIterations++;
+            peakNodes = Math.max(peakNodes, tree.size());
+
+            // The arena only reclaims cleared blocks by copying, so its size counts dead nodes until then
+            if (maxNodes > 0 && tree.size() >= maxNodes) {
+                tree = evictSubtrees(tree, root);
+            }
+        }
+
+        long searchTime = System.currentTimeMillis() - startTime;
+        lastAllocatedBytes = allocatedSince(allocatedAtStart);
+        if (recordSearches) {
+            recordSearch(
+                searchAlgorithm.getName(),
+                totalNodeVisits,
+                totalNodeCount,
+                searchTime,
+                tree.estimateBytes(),
+                tree.size(),
+                lastAllocatedBytes,
+                peakNodes
+            );
+            if (evictedSubtrees > 0) {
+                recordEvictions(searchAlgorithm.getName(), evictedSubtrees, evictedNodes);
+            }
+        }
+
+        lastIterations = numIterations;
+        return tree;
+    }
+
+    private void finishSearch(final TreeArena tree) {
+        if (reuseTree) {
+            previousTree = tree;
+        }
+    }
+
+    private Move selectActionRootParallel(final Context context, final double maxSeconds, final int maxIterations) {
+        if (workers == null || workers.length != numThreads) {
+            startWorkers();
+        }
+
+        final long startTime = System.currentTimeMillis();
+        List<Future<RootStatistics>> futures = new ArrayList<>();
+        for (int i = 1; i < workers.length; i++) {
+            final GeneralBestFirstSearch worker = configureWorker(workers[i]);
+            final Context workerContext = new Context(context);
+            futures.add(workerPool.submit(() -> worker.searchRoot(workerContext, maxSeconds, maxIterations)));
+        }
+        List<RootStatistics> results = new ArrayList<>();
+        results.add(configureWorker(workers[0]).searchRoot(new Context(context), maxSeconds, maxIterations));
+        for (Future<RootStatistics> future : futures) {
+            results.add(await(future));
+        }
+
+        recordRootParallelSearch(results, System.currentTimeMillis() - startTime);
+
+        final LudiiNode root = mergeRoots(context, results);
         LudiiNode bestChild;
         if (searchAlgorithm.getFinalMoveSelection() != null) {
             bestChild = searchAlgorithm.getFinalMoveSelection().execute(root);
         } else {
             bestChild = searchAlgorithm.getSelection().execute(root);
         }
+        if (bestChild == null || bestChild.getMoveFromParent() == null) {
+            return root.getChildren().isEmpty() ? null : root.getChildren().get(0).getMoveFromParent();
+        }
+        return bestChild.getMoveFromParent();
+    }
 
-        // Log tree size information to file
-//        logTreeSizeInfo(System.currentTimeMillis() - startTime);
-        GlobalVariableRegistry.cleanupInstance(root.getSearchId());
+    // One search over all workers, timed by the wall clock, holding all their trees and allocations at once
+    private void recordRootParallelSearch(final List<RootStatistics> results, final long searchTime) {
+        long visits = 0;
+        long nodes = 0;
+        long treeBytes = 0;
+        long treeNodes = 0;
+        long allocatedBytes = 0;
+        long peak = 0;
+        long subtrees = 0;
+        long evicted = 0;
+        lastIterations = 0;
+        for (RootStatistics result : results) {
+            lastIterations += result.iterations;
+            visits += result.visits;
+            nodes += result.nodes;
+            treeBytes += result.treeBytes;
+            treeNodes += result.treeNodes;
+            allocatedBytes = addAllocated(allocatedBytes, result.allocatedBytes);
+            peak += result.peakNodes;
+            subtrees += result.evictedSubtrees;
+            evicted += result.evictedNodes;
+        }
+        recordSearch(searchAlgorithm.getName(), visits, nodes, searchTime, treeBytes, treeNodes, allocatedBytes, peak);
+        if (subtrees > 0) {
+            recordEvictions(searchAlgorithm.getName(), subtrees, evicted);
+        }
+    }
 
-        // Fallback to first child if bestChild is null or has no move
-        if (bestChild == null || bestChild.getMoveFromParent() == null) {
-            if (!root.getChildren().isEmpty()) {
-                return root.getChildren().get(0).getMoveFromParent();
+    private static <V> V await(final Future<V> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the search workers", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Search worker failed", e.getCause());
+        }
+    }
+
+    private Move selectActionTreeParallel(final Context context, final double maxSeconds, final int maxIterations) {
+        final LudiiNode root = startSharedSearch(context);
+        final long allocatedAtStart = currentThreadAllocatedBytes();
+        final long startTime = System.currentTimeMillis();
+        final long stopTime = (maxSeconds > 0.0) ? startTime + (long) (maxSeconds * 1000L) : Long.MAX_VALUE;
+        final AtomicInteger remainingIterations = new AtomicInteger(maxIterations >= 0 ? maxIterations : Integer.MAX_VALUE);
+
+        List<TreeWorker> treeWorkers = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            treeWorkers.add(new TreeWorker(root, stopTime, remainingIterations));
+        }
+        root.getFrame().setConcurrent(true);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 1; i < treeWorkers.size(); i++) {
+                futures.add(workerPool.submit(treeWorkers.get(i)));
             }
+            treeWorkers.get(0).call();
+            for (Future<Void> future : futures) {
+                await(future);
+            }
+        } finally {
+            root.getFrame().setConcurrent(false);
+        }
+
+        maxDepthEncountered = 0;
+        totalNodeCount = 0;
+        totalNodeVisits = 0;
+        lastIterations = 0;
+        for (TreeWorker worker : treeWorkers) {
+            maxDepthEncountered = Math.max(maxDepthEncountered, worker.maxDepth);
+            totalNodeCount += worker.nodeCount;
+            totalNodeVisits += worker.nodeVisits;
+            lastIterations += worker.iterations;
+        }
+        // The first worker ran on this thread, so only the pool threads are added to its bytes
+        long allocatedBytes = allocatedSince(allocatedAtStart);
+        for (int i = 1; i < treeWorkers.size(); i++) {
+            allocatedBytes = addAllocated(allocatedBytes, treeWorkers.get(i).allocatedBytes);
+        }
+        return finishSharedSearch(root, startTime, allocatedBytes);
+    }
+
+    // The root of a search on one object tree shared by several threads, and the pool they run on
+    private LudiiNode startSharedSearch(final Context context) {
+        if (workerPool == null || poolSize != numThreads - 1) {
+            startPool();
+        }
+        LudiiNode reused = reuseTree ? reuseRoot(context) : null;
+        final LudiiNode root = reused != null ? reused : new LudiiNode(new Context(context), playerId, searchAlgorithm.getLayout());
+        root.getFrame().reset(searchAlgorithm.getInitialGlobals());
+        root.getFrame().startCountingNodes(reused != null ? root.subtreeSize() : 1);
+        virtualLossSlot = searchAlgorithm.getLayout().slotOf("valueEstimate");
+        return root;
+    }
+
+    // Records the search from the counters, which the threads have been summed into, and selects the move
+    private Move finishSharedSearch(final LudiiNode root, final long startTime, final long allocatedBytes) {
+        if (root.getProofNumber() == 0.0 || root.getDisproofNumber() == 0.0) {
+            String result = root.getProofNumber() == 0.0 ? "proven" : "disproven";
+            System.out.println("Tree was " + result + " in " + (System.currentTimeMillis() - startTime) / 1000 + " s (" + totalNodeCount + " nodes).");
+        }
+        final Node.SubtreeSize size = root.measureSubtree();
+        recordSearch(
+            searchAlgorithm.getName(),
+            totalNodeVisits,
+            totalNodeCount,
+            System.currentTimeMillis() - startTime,
+            size.bytes,
+            size.nodes,
+            allocatedBytes,
+            root.getFrame().getPeakNodes()
+        );
+
+        LudiiNode bestChild;
+        if (searchAlgorithm.getFinalMoveSelection() != null) {
+            bestChild = searchAlgorithm.getFinalMoveSelection().execute(root);
+        } else {
+            bestChild = searchAlgorithm.getSelection().execute(root);
+        }
+        if (reuseTree) {
+            previousRoot = root;
         }
 
+        if (bestChild == null || bestChild.getMoveFromParent() == null) {
+            return root.getChildren().isEmpty() ? null : root.getChildren().get(0).getMoveFromParent();
+        }
         return bestChild.getMoveFromParent();
     }
 
+    // One thread of a tree-parallel search, with its own counters and path
+    private final class TreeWorker implements Callable<Void> {
+        private final LudiiNode root;
+        private final long stopTime;
+        private final AtomicInteger remainingIterations;
+        private final List<LudiiNode> path = new ArrayList<>();
+        private int iterations = 0;
+        private int nodeVisits = 0;
+        private int nodeCount = 0;
+        private int maxDepth = 0;
+        private long allocatedBytes = -1; // by the thread that ran it
+
+        private TreeWorker(final LudiiNode root, final long stopTime, final AtomicInteger remainingIterations) {
+            this.root = root;
+            this.stopTime = stopTime;
+            this.remainingIterations = remainingIterations;
+        }
+
+        @Override
+        public Void call() {
+            final long allocatedAtStart = currentThreadAllocatedBytes();
+            while (System.currentTimeMillis() < stopTime && !isInterrupted()) {
+                if (root.getProofNumber() == 0.0 || root.getDisproofNumber() == 0.0) {
+                    break;
+                }
+                if (remainingIterations.getAndDecrement() <= 0) {
+                    break;
+                }
+                iterate();
+                iterations++;
+            }
+            allocatedBytes = allocatedSince(allocatedAtStart);
+            return null;
+        }
+
+        // A thread that finds a leaf another thread is still expanding evaluates it as it is
+        private void iterate() {
+            path.clear();
+            LudiiNode current = root;
+            while (!current.isTerminal()) {
+                LudiiNode selected = searchAlgorithm.getSelection().execute(current);
+                nodeVisits++;
+                if (selected != current) {
+                    addVirtualLoss(selected, 1);
+                    path.add(selected);
+                }
+                current = selected;
+                if (current.getChildren().isEmpty()) {
+                    if (current.claimExpansion()) {
+                        int added = expandShared(current);
+                        nodeVisits += added;
+                        nodeCount += added;
+                        maxDepth = Math.max(maxDepth, current.getDepth());
+                    }
+                    break;
+                }
+            }
+            current = searchAlgorithm.getEvaluation().execute(current);
+            for (LudiiNode node : path) {
+                addVirtualLoss(node, -1);
+            }
+            searchAlgorithm.getBackpropagation().execute(current);
+        }
+    }
+
+    // Moves are generated on a copy, since the node's context is shared with threads evaluating it.
+    // Returns the number of children added.
+    private int expandShared(final LudiiNode node) {
+        final Context context = new Context(node.getContext());
+        final FastArrayList<Move> legalMoves = context.game().moves(context).moves();
+        List<LudiiNode> children = new ArrayList<>(legalMoves.size());
+        for (Move move : legalMoves) {
+            Context newContext = new Context(context);
+            newContext.game().apply(newContext, move);
+            children.add(new LudiiNode(node, newContext, playerId, move));
+        }
+        node.addChildren(children);
+        return children.size();
+    }
+
+    private Move selectActionPipeline(final Context context, final double maxSeconds, final int maxIterations) {
+        final LudiiNode root = startSharedSearch(context);
+        final long allocatedAtStart = currentThreadAllocatedBytes();
+        final long startTime = System.currentTimeMillis();
+        final long stopTime = (maxSeconds > 0.0) ? startTime + (long) (maxSeconds * 1000L) : Long.MAX_VALUE;
+        final int maxIts = (maxIterations >= 0) ? maxIterations : Integer.MAX_VALUE;
+
+        maxDepthEncountered = 0;
+        totalNodeCount = 0;
+        totalNodeVisits = 0;
+        lastIterations = 0;
+        Deque<List<Future<PendingLeaf>>> inFlight = new ArrayDeque<>();
+        long evaluationBytes = 0; // allocated by the pool threads while evaluating
+        root.getFrame().setConcurrent(true);
+        try {
+            while (lastIterations < maxIts && System.currentTimeMillis() < stopTime && !isInterrupted()) {
+                if (root.getProofNumber() == 0.0 || root.getDisproofNumber() == 0.0) {
+                    break;
+                }
+                List<Future<PendingLeaf>> batch = new ArrayList<>(batchSize);
+                for (int i = 0; i < batchSize && lastIterations < maxIts; i++) {
+                    final PendingLeaf leaf = selectLeaf(root);
+                    batch.add(workerPool.submit(() -> evaluateLeaf(leaf)));
+                    lastIterations++;
+                }
+                inFlight.add(batch);
+                if (inFlight.size() >= queueDepth) {
+                    evaluationBytes = addAllocated(evaluationBytes, backpropagateBatch(inFlight.poll()));
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                evaluationBytes = addAllocated(evaluationBytes, backpropagateBatch(inFlight.poll()));
+            }
+        } finally {
+            // Left over only after a failure, their leaves are not backpropagated
+            for (List<Future<PendingLeaf>> batch : inFlight) {
+                for (Future<PendingLeaf> future : batch) {
+                    future.cancel(true);
+                }
+            }
+            root.getFrame().setConcurrent(false);
+        }
+        return finishSharedSearch(root, startTime, addAllocated(allocatedSince(allocatedAtStart), evaluationBytes));
+    }
+
+    // A selected leaf, the nodes its virtual loss was added to and the globals its Evaluation Set
+    private static final class PendingLeaf {
+        private LudiiNode node;
+        private final List<LudiiNode> path;
+        private double[] globals;
+        private long allocatedBytes = -1; // by the pool thread that evaluated it
+
+        private PendingLeaf(final LudiiNode node, final List<LudiiNode> path) {
+            this.node = node;
+            this.path = path;
+        }
+    }
+
+    // Descends with virtual loss like a tree-parallel thread, the selection thread is the only one that expands
+    private PendingLeaf selectLeaf(final LudiiNode root) {
+        List<LudiiNode> path = new ArrayList<>();
+        LudiiNode current = root;
+        while (!current.isTerminal()) {
+            LudiiNode selected = searchAlgorithm.getSelection().execute(current);
+            totalNodeVisits++;
+            if (selected != current) {
+                addVirtualLoss(selected, 1);
+                path.add(selected);
+            }
+            current = selected;
+            if (current.getChildren().isEmpty()) {
+                int added = expandShared(current);
+                totalNodeVisits += added;
+                totalNodeCount += added;
+                maxDepthEncountered = Math.max(maxDepthEncountered, current.getDepth());
+                break;
+            }
+        }
+        return new PendingLeaf(current, path);
+    }
+
+    // Runs on a pool thread, whose copy of the globals is handed to the backpropagation
+    private PendingLeaf evaluateLeaf(final PendingLeaf leaf) {
+        final long allocatedAtStart = currentThreadAllocatedBytes();
+        leaf.node = searchAlgorithm.getEvaluation().execute(leaf.node);
+        leaf.globals = leaf.node.getFrame().copyValues();
+        leaf.allocatedBytes = allocatedSince(allocatedAtStart);
+        return leaf;
+    }
+
+    // Returns the bytes the pool threads allocated to evaluate the batch
+    private long backpropagateBatch(final List<Future<PendingLeaf>> batch) {
+        long allocatedBytes = 0;
+        for (Future<PendingLeaf> future : batch) {
+            PendingLeaf leaf = await(future);
+            allocatedBytes = addAllocated(allocatedBytes, leaf.allocatedBytes);
+            for (LudiiNode node : leaf.path) {
+                addVirtualLoss(node, -1);
+            }
+            leaf.node.getFrame().setValues(leaf.globals);
+            searchAlgorithm.getBackpropagation().execute(leaf.node);
+        }
+        return allocatedBytes;
+    }
+
+    // Makes a node look visited more often and worse for the player choosing it to Selection (sign 1), or undoes that (sign -1)
+    private void addVirtualLoss(final LudiiNode node, final int sign) {
+        if (virtualLossVisits != 0) {
+            node.addVirtualLoss(AttributeLayout.VISIT_COUNT, sign * virtualLossVisits);
+        }
+        if (virtualLossValue != 0 && virtualLossSlot >= 0) {
+            boolean chosenByMax = node.getParent().getValue(AttributeLayout.NODE_TYPE) == 0.0;
+            node.addVirtualLoss(virtualLossSlot, (chosenByMax ? -sign : sign) * virtualLossValue);
+        }
+    }
+
+    // Workers are kept across moves, so that each can reuse its own tree
+    private void startWorkers() {
+        stopWorkers();
+        workers = new GeneralBestFirstSearch[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            workers[i] = new GeneralBestFirstSearch(searchAlgorithm);
+            workers[i].coordinator = this;
+            workers[i].recordSearches = false;
+        }
+        startPool();
+    }
+
+    // The calling thread always searches as well, so the pool has one thread less
+    private void startPool() {
+        if (workerPool != null) {
+            workerPool.shutdownNow();
+        }
+        final int poolThreads = numThreads - 1;
+        workerPool = Executors.newFixedThreadPool(poolThreads, runnable -> {
+            Thread thread = new Thread(runnable, friendlyName + " worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        poolSize = poolThreads;
+    }
+
+    private void stopWorkers() {
+        if (workerPool != null) {
+            workerPool.shutdownNow();
+            workerPool = null;
+            poolSize = 0;
+        }
+        if (workers != null) {
+            for (GeneralBestFirstSearch worker : workers) {
+                worker.discardPreviousTree();
+            }
+            workers = null;
+        }
+    }
+
+    // Settings may change between moves, so they are copied again before every search
+    private GeneralBestFirstSearch configureWorker(final GeneralBestFirstSearch worker) {
+        worker.playerId = playerId;
+        worker.useArena = useArena;
+        worker.lazyExpansion = lazyExpansion;
+        worker.checkpointInterval = checkpointInterval;
+        worker.maxCheckpoints = maxCheckpoints;
+        worker.reuseTree = reuseTree;
+        worker.useTranspositions = useTranspositions;
+        worker.maxNodes = maxNodes;
+        worker.evictionPolicy = evictionPolicy;
+        worker.secondLevelNodes = secondLevelNodes;
+        return worker;
+    }
+
+    // One worker's search, summarised before its tree is kept for reuse or dropped
+    private RootStatistics searchRoot(final Context context, final double maxSeconds, final int maxIterations) {
+        RootStatistics statistics = new RootStatistics();
+        AttributeLayout layout = searchAlgorithm.getLayout();
+        if (useArena) {
+            TreeArena tree = searchArena(context, maxSeconds, maxIterations);
+            statistics.treeBytes = tree.estimateBytes();
+            statistics.treeNodes = tree.size();
+            statistics.root = valuesOf(tree, 0, layout);
+            int first = tree.getFirstChild(0);
+            for (int child = first; child < first + tree.getChildCount(0); child++) {
+                statistics.moves.add(tree.getMove(child));
+                statistics.children.add(valuesOf(tree, child, layout));
+            }
+            finishSearch(tree);
+        } else {
+            LudiiNode root = searchTree(context, maxSeconds, maxIterations);
+            final Node.SubtreeSize size = root.measureSubtree();
+            statistics.treeBytes = size.bytes;
+            statistics.treeNodes = size.nodes;
+            statistics.root = valuesOf(root, layout);
+            for (LudiiNode child : root.getChildren()) {
+                statistics.moves.add(child.getMoveFromParent());
+                statistics.children.add(valuesOf(child, layout));
+            }
+            finishSearch(root);
+        }
+        statistics.iterations = lastIterations;
+        statistics.visits = totalNodeVisits;
+        statistics.nodes = totalNodeCount;
+        statistics.allocatedBytes = lastAllocatedBytes;
+        statistics.peakNodes = peakNodes;
+        statistics.evictedSubtrees = evictedSubtrees;
+        statistics.evictedNodes = evictedNodes;
+        return statistics;
+    }
+
+    private static double[] valuesOf(final LudiiNode node, final AttributeLayout layout) {
+        double[] values = new double[layout.size()];
+        for (int slot = 0; slot < values.length; slot++) {
+            values[slot] = node.valueOf(slot);
+        }
+        return values;
+    }
+
+    private static double[] valuesOf(final TreeArena tree, final int node, final AttributeLayout layout) {
+        double[] values = new double[layout.size()];
+        for (int slot = 0; slot < values.length; slot++) {
+            values[slot] = tree.getValue(node, slot);
+        }
+        return values;
+    }
+
+    // A fresh root with one stub child per move found by any worker, carrying the merged statistics.
+    // The workers' own trees are left untouched, so that they can still be reused.
+    private LudiiNode mergeRoots(final Context context, final List<RootStatistics> results) {
+        final LudiiNode root = new LudiiNode(context, playerId, searchAlgorithm.getLayout());
+        root.getFrame().reset(searchAlgorithm.getInitialGlobals());
+
+        List<double[]> rootValues = new ArrayList<>();
+        List<List<double[]>> childValues = new ArrayList<>();
+        Map<Move, Integer> childIndices = new LinkedHashMap<>();
+        for (RootStatistics result : results) {
+            rootValues.add(result.root);
+            for (int i = 0; i < result.moves.size(); i++) {
+                Move move = result.moves.get(i);
+                Integer index = childIndices.get(move);
+                if (index == null) {
+                    index = childValues.size();
+                    childIndices.put(move, index);
+                    root.addChild(new LudiiNode(root, playerId, move));
+                    childValues.add(new ArrayList<>());
+                }
+                childValues.get(index).add(result.children.get(i));
+            }
+        }
+        mergeValues(root, rootValues);
+        for (int i = 0; i < childValues.size(); i++) {
+            mergeValues(root.getChildren().get(i), childValues.get(i));
+        }
+        return root;
+    }
+
+    // Visits are summed and value estimates weighted by them. Proof and disproof numbers take the smallest,
+    // since a proof found in any one tree holds for the position. A solved position then gets an infinite
+    // number on the other side, whatever the unsolved trees had. Other attributes come from the first tree.
+    private static void mergeValues(final LudiiNode node, final List<double[]> values) {
+        AttributeLayout layout = node.getLayout();
+        int valueEstimate = layout.slotOf("valueEstimate");
+        int proofNumber = layout.proofNumberSlot();
+        int disproofNumber = layout.disproofNumberSlot();
+
+        double[] merged = values.get(0).clone();
+        double visits = 0;
+        double weightedValue = 0;
+        double valueSum = 0;
+        for (double[] tree : values) {
+            visits += tree[AttributeLayout.VISIT_COUNT];
+            if (valueEstimate >= 0) {
+                weightedValue += tree[AttributeLayout.VISIT_COUNT] * tree[valueEstimate];
+                valueSum += tree[valueEstimate];
+            }
+            if (proofNumber >= 0) {
+                merged[proofNumber] = Math.min(merged[proofNumber], tree[proofNumber]);
+            }
+            if (disproofNumber >= 0) {
+                merged[disproofNumber] = Math.min(merged[disproofNumber], tree[disproofNumber]);
+            }
+        }
+        if (proofNumber >= 0 && disproofNumber >= 0) {
+            if (merged[proofNumber] == 0) {
+                merged[disproofNumber] = Double.POSITIVE_INFINITY;
+            } else if (merged[disproofNumber] == 0) {
+                merged[proofNumber] = Double.POSITIVE_INFINITY;
+            }
+        }
+        merged[AttributeLayout.VISIT_COUNT] = visits;
+        if (valueEstimate >= 0) {
+            merged[valueEstimate] = visits > 0 ? weightedValue / visits : valueSum / values.size();
+        }
+        for (int slot = 0; slot < merged.length; slot++) {
+            node.setValue(slot, merged[slot]);
+        }
+    }
+
+    // Values of one tree's root and root children, and the counters of its search
+    private static final class RootStatistics {
+        int iterations;
+        long visits;
+        long nodes;
+        long treeBytes;
+        long treeNodes;
+        long allocatedBytes;
+        long peakNodes;
+        long evictedSubtrees;
+        long evictedNodes;
+        double[] root;
+        final List<Move> moves = new ArrayList<>();
+        final List<double[]> children = new ArrayList<>();
+    }
+
+    private boolean isInterrupted() {
+        return wantsInterrupt || (coordinator != null && coordinator.wantsInterrupt);
+    }
+
+    // The node of the previous tree reached by the moves played since, promoted to root, or null to start afresh
+    private LudiiNode reuseRoot(final Context context) {
+        if (previousRoot == null) {
+            return null;
+        }
+        LudiiNode node = previousRoot;
+        int from = movesPlayedSince(node.getContext().trial(), context.trial());
+        if (from < 0) {
+            node = null;
+        }
+        for (int i = from; node != null && i < context.trial().numMoves(); i++) {
+            node = findChild(node, context.trial().getMove(i));
+        }
+        if (node == null) {
+            discardPreviousTree();
+            return null;
+        }
+        node.promoteToRoot(new Context(context));
+        previousRoot = null;
+        return node;
+    }
+
+    private TreeArena reuseTree(final Context context) {
+        if (previousTree == null) {
+            return null;
+        }
+        int node = 0;
+        int from = movesPlayedSince(previousTree.getContext(node).trial(), context.trial());
+        if (from < 0) {
+            node = -1;
+        }
+        for (int i = from; node >= 0 && i < context.trial().numMoves(); i++) {
+            node = findChild(previousTree, node, context.trial().getMove(i));
+        }
+        if (node < 0) {
+            discardPreviousTree();
+            return null;
+        }
+        TreeArena tree = previousTree.extractSubtree(node, new Context(context));
+        previousTree = null;
+        return tree;
+    }
+
+    // Index of the first move played since the previous root, or -1 if the trial does not continue from it
+    private static int movesPlayedSince(final Trial previous, final Trial current) {
+        int from = previous.numMoves();
+        if (current.numMoves() < from) {
+            return -1;
+        }
+        if (from > 0 && !current.getMove(from - 1).equals(previous.getMove(from - 1))) {
+            return -1;
+        }
+        return from;
+    }
+
+    private static LudiiNode findChild(final LudiiNode node, final Move move) {
+        for (LudiiNode child : node.getChildren()) {
+            if (move.equals(child.getMoveFromParent())) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    private static int findChild(final TreeArena tree, final int node, final Move move) {
+        int first = tree.getFirstChild(node);
+        for (int child = first; child < first + tree.getChildCount(node); child++) {
+            if (move.equals(tree.getMove(child))) {
+                return child;
+            }
+        }
+        return -1;
+    }
+
+    private void discardPreviousTree() {
+        previousRoot = null;
+        previousTree = null;
+    }
+
+    private static long allocatedSince(long allocatedAtStart) {
+        return allocatedAtStart >= 0 ? currentThreadAllocatedBytes() - allocatedAtStart : -1;
+    }
+
+    // Bytes of several threads, unknown if any of them is
+    private static long addAllocated(long total, long bytes) {
+        return total >= 0 && bytes >= 0 ? total + bytes : -1;
+    }
+
+    // Clears the children of the least valuable expanded nodes until the tree is back under EVICTION_TARGET of the budget
+    private void evictSubtrees(LudiiNode root) {
+        List<LudiiNode> candidates = new ArrayList<>();
+        Deque<LudiiNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            for (LudiiNode child : stack.pop().getChildren()) {
+                if (!child.getChildren().isEmpty()) {
+                    candidates.add(child);
+                    stack.push(child);
+                }
+            }
+        }
+        candidates.sort(Comparator.comparingDouble((LudiiNode node) -> evictionScore(node)).reversed());
+
+        int target = (int) (maxNodes * EVICTION_TARGET);
+        for (LudiiNode node : candidates) {
+            if (liveNodes <= target) {
+                break;
+            }
+            if (node.getChildren().isEmpty() || hasEvictedAncestor(node)) {
+                continue;
+            }
+            int size = node.subtreeSize() - 1;
+            node.clearChildren();
+            liveNodes -= size;
+            evictedSubtrees++;
+            evictedNodes += size;
+        }
+        if (useTranspositions) {
+            // Evicted positions must not be linked again, and shared nodes may still be reachable through another parent
+            transpositions.values().removeIf(GeneralBestFirstSearch::hasEvictedAncestor);
+            liveNodes = root.subtreeSize();
+        }
+    }
+
+    private TreeArena evictSubtrees(TreeArena tree, int root) {
+        int[] queue = new int[tree.size()];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = root;
+        List<Integer> candidates = new ArrayList<>();
+        int live = 1;
+        while (head < tail) {
+            int node = queue[head++];
+            live += tree.getChildCount(node);
+            int first = tree.getFirstChild(node);
+            for (int child = first; child < first + tree.getChildCount(node); child++) {
+                if (tree.getChildCount(child) > 0) {
+                    candidates.add(child);
+                    queue[tail++] = child;
+                }
+            }
+        }
+        candidates.sort(Comparator.comparingDouble((Integer node) -> evictionScore(tree, node)).reversed());
+
+        int target = (int) (maxNodes * EVICTION_TARGET);
+        for (int node : candidates) {
+            if (live <= target) {
+                break;
+            }
+            if (tree.getChildCount(node) == 0 || hasEvictedAncestor(tree, node)) {
+                continue;
+            }
+            int size = subtreeSize(tree, node) - 1;
+            tree.clearChildren(node);
+            live -= size;
+            evictedSubtrees++;
+            evictedNodes += size;
+        }
+        return tree.extractSubtree(root, tree.getContext(root));
+    }
+
+    // Higher scores are evicted first
+    private double evictionScore(LudiiNode node) {
+        if (evictionPolicy == EvictionPolicy.LEAST_VISITED) {
+            return -node.getValue(AttributeLayout.VISIT_COUNT);
+        }
+        boolean belowOrNode = node.getParent().getValue(AttributeLayout.NODE_TYPE) == 0.0;
+        return belowOrNode ? node.getProofNumber() : node.getDisproofNumber();
+    }
+
+    private double evictionScore(TreeArena tree, int node) {
+        if (evictionPolicy == EvictionPolicy.LEAST_VISITED) {
+            return -tree.getValue(node, AttributeLayout.VISIT_COUNT);
+        }
+        boolean belowOrNode = tree.getValue(tree.getParent(node), AttributeLayout.NODE_TYPE) == 0.0;
+        return belowOrNode ? tree.getProofNumber(node) : tree.getDisproofNumber(node);
+    }
+
+    // Descendants of an evicted node are still in the candidate list but no longer in the tree
+    private static boolean hasEvictedAncestor(LudiiNode node) {
+        for (LudiiNode ancestor = node.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+            if (ancestor.getChildren().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasEvictedAncestor(TreeArena tree, int node) {
+        for (int ancestor = tree.getParent(node); ancestor >= 0; ancestor = tree.getParent(ancestor)) {
+            if (tree.getChildCount(ancestor) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int subtreeSize(TreeArena tree, int node) {
+        int count = 1;
+        int first = tree.getFirstChild(node);
+        for (int child = first; child < first + tree.getChildCount(node); child++) {
+            count += subtreeSize(tree, child);
+        }
+        return count;
+    }
+
+    // Called once a leaf has been expanded and evaluated, after which its context is only needed for replay
+    private void retainOrReleaseContext(LudiiNode node) {
+        if (node.isCheckpoint()) {
+            return;
+        }
+        if (isCheckpointDepth(node.getDepth())) {
+            node.markCheckpoint();
+            numCheckpoints++;
+        } else {
+            node.releaseContext();
+        }
+    }
+
+    private void retainOrReleaseContext(TreeArena tree, int node) {
+        if (tree.isCheckpoint(node)) {
+            return;
+        }
+        if (isCheckpointDepth(tree.getDepth(node))) {
+            tree.markCheckpoint(node);
+            numCheckpoints++;
+        } else {
+            tree.releaseContext(node);
+        }
+    }
+
+    private boolean isCheckpointDepth(int depth) {
+        return depth % checkpointInterval == 0 && (maxCheckpoints <= 0 || numCheckpoints < maxCheckpoints);
+    }
+
+    private void expandNode(TreeArena tree, int node) {
+        final Context context = tree.getContext(node);
+        final FastArrayList<Move> legalMoves = context.game().moves(context).moves();
+        int child = tree.addChildren(node, legalMoves.size());
+        for (Move move : legalMoves) {
+            if (lazyExpansion || checkpointInterval > 0) {
+                tree.setStub(child++, move);
+            } else {
+                Context newContext = new Context(context);
+                newContext.game().apply(newContext, move);
+                tree.setState(child++, newContext, move);
+            }
+            totalNodeVisits++;
+            totalNodeCount++;
+        }
+    }
+
     private void expandNode(LudiiNode node) {
         final FastArrayList<Move> legalMoves = node.getContext().game().moves(node.getContext()).moves();
         for (Move move : legalMoves) {
-            Context newContext = new Context(node.getContext());
-            newContext.game().apply(newContext, move);
-            LudiiNode childNode = new LudiiNode(node, newContext, playerId, move);
+            LudiiNode childNode;
+            if (useTranspositions && !inSecondLevel) {
+                // Hashing needs the child's state, so transpositions always materialise contexts
+                Context newContext = new Context(node.getContext());
+                newContext.game().apply(newContext, move);
+                long hash = newContext.state().fullHash();
+                LudiiNode known = transpositions.get(hash);
+                if (known != null && known.getDepth() == node.getDepth() + 1 && !node.getChildren().contains(known)) {
+                    known.addParent(node);
+                    node.addChild(known);
+                    totalNodeVisits++;
+                    continue;
+                }
+                childNode = new LudiiNode(node, newContext, playerId, move);
+                transpositions.put(hash, childNode);
+            } else if (lazyExpansion || checkpointInterval > 0) {
+                childNode = new LudiiNode(node, playerId, move);
+            } else {
+                Context newContext = new Context(node.getContext());
+                newContext.game().apply(newContext, move);
+                childNode = new LudiiNode(node, newContext, playerId, move);
+            }
             node.addChild(childNode);
             totalNodeVisits++;
             totalNodeCount++;
+            if (!inSecondLevel) {
+                liveNodes++;
+            }
         }
     }
 
@@ -171,6 +1377,18 @@ public class GeneralBestFirstSearch extends AI {
     @Override
     public void initAI(final Game game, final int playerID) {
         this.playerId = playerID;
+        discardPreviousTree();
+        if (workers != null) {
+            for (GeneralBestFirstSearch worker : workers) {
+                worker.discardPreviousTree();
+            }
+        }
+    }
+
+    @Override
+    public void closeAI() {
+        discardPreviousTree();
+        stopWorkers();
     }
 
     public boolean supportsGame(final Game game)
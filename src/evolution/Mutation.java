@@ -5,7 +5,6 @@ import parser.ASTNode;
 import parser.Compiler;
 import parser.ExecutableSearchAlgorithm;
 import utils.FunctionRegistry;
-import utils.GlobalVariableRegistry;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -401,7 +400,7 @@ public class Mutation {
             return "NodeType";
         } else if (isOperator(value)) {
             return getOperator(value).returnType;
-        } else if (GlobalVariableRegistry.variableExistsInAnyInstance(value)) {
+        } else if (isDefined(node, value)) {
             // Assume global variables are numbers
             return "Number";
         } else if (FunctionRegistry.hasEvalFunction(value)) {
@@ -412,6 +411,20 @@ public class Mutation {
         }
     }
 
+    // Whether the name is a global Defined by the individual the node belongs to
+    static boolean isDefined(ASTNode node, String name) {
+        ASTNode root = node;
+        while (root.getParent() != null) {
+            root = root.getParent();
+        }
+        for (ASTNode component : root.getChildren()) {
+            if (component.getValue().equals("Define") && component.getChildren().get(0).getValue().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     static boolean isNumber(String value) {
         try {
             Double.parseDouble(value);
@@ -0,0 +1,76 @@
+package main;
+
+import algos.GeneralBestFirstSearch;
+import game.Game;
+import other.GameLoader;
+import other.context.Context;
+import other.trial.Trial;
+import parser.Compiler;
+import parser.CompilerOptions;
+import parser.ExecutableSearchAlgorithm;
+import parser.Parser;
+import parser.Tokenizer;
+import utils.EvaluationFunctions;
+import utils.FunctionRegistry;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Measures search iterations per second with interpreted, compiled and bytecode-generated
+ * SADL algorithms, using fixed-iteration searches from the initial position of a game.
+ */
+public class LaunchExpressionBenchmark
+{
+	public static void main(final String[] args) throws IOException
+	{
+		String game_path = "resources/LOA6x6.lud";
+		String[] SADL_paths = {"resources/SADL/MCTS.txt", "resources/SADL/PN-MCTS.txt",
+				"resources/SADL/MCTSx7x8x9x13x14x15x25x28x32x35x37x39x41x43x44x0x4.txt"};
+
+		// Iterations per search, and searches per measurement after as many warm-up searches
+		final int ITERATIONS = 20000;
+		final int SEARCHES = 10;
+
+		FunctionRegistry.setEvalFunction("mctsEval", EvaluationFunctions.mctsEval);
+		FunctionRegistry.setEvalFunction("pnsEval", EvaluationFunctions.pnsEval);
+
+		final Game game = GameLoader.loadGameFromFile(new File(game_path));
+
+		System.out.println("algorithm, interpreted it/s, compiled it/s, generated it/s");
+		for (String SADL_path : SADL_paths) {
+			String SADL_input = new String(Files.readAllBytes(Paths.get(SADL_path)));
+			ExecutableSearchAlgorithm interpreted = Compiler.compile(new Parser(new Tokenizer(SADL_input).tokenize()).parse(), CompilerOptions.interpreted());
+			ExecutableSearchAlgorithm compiled = Compiler.compile(new Parser(new Tokenizer(SADL_input).tokenize()).parse(), CompilerOptions.defaults());
+			ExecutableSearchAlgorithm generated = Compiler.compile(new Parser(new Tokenizer(SADL_input).tokenize()).parse(), CompilerOptions.generated());
+
+			iterationsPerSecond(game, interpreted, ITERATIONS, SEARCHES);
+			iterationsPerSecond(game, compiled, ITERATIONS, SEARCHES);
+			iterationsPerSecond(game, generated, ITERATIONS, SEARCHES);
+			double interpretedRate = iterationsPerSecond(game, interpreted, ITERATIONS, SEARCHES);
+			double compiledRate = iterationsPerSecond(game, compiled, ITERATIONS, SEARCHES);
+			double generatedRate = iterationsPerSecond(game, generated, ITERATIONS, SEARCHES);
+
+			System.out.printf("%s, %.0f, %.0f (%.2fx), %.0f (%.2fx)%n", compiled.getName(), interpretedRate,
+					compiledRate, compiledRate / interpretedRate, generatedRate, generatedRate / interpretedRate);
+		}
+	}
+
+	private static double iterationsPerSecond(final Game game, final ExecutableSearchAlgorithm algorithm, final int iterations, final int searches)
+	{
+		final Context context = new Context(game, new Trial(game));
+		game.start(context);
+
+		GeneralBestFirstSearch ai = new GeneralBestFirstSearch(algorithm);
+		ai.initAI(game, context.state().mover());
+		long startTime = System.nanoTime();
+		for (int i = 0; i < searches; i++) {
+			ai.selectAction(game, new Context(context), -1, iterations, -1);
+		}
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		ai.closeAI();
+		return (double) iterations * searches / seconds;
+	}
+}
@@ -0,0 +1,101 @@
+package main;
+
+import game.Game;
+import other.GameLoader;
+import other.context.Context;
+import other.trial.Trial;
+import parser.AttributeLayout;
+import parser.Compiler;
+import parser.CompilerOptions;
+import parser.ExecutableCondition;
+import parser.ExecutableSearchAlgorithm;
+import parser.ExecutableSelectNode;
+import parser.Parser;
+import parser.Tokenizer;
+import parser.TreeArena;
+import utils.EvaluationFunctions;
+import utils.FunctionRegistry;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Measures the guarded child selections of PN-MCTS per second on an arena node, interpreted and
+ * compiled, at several branching factors, together with the bytes allocated per selection.
+ * Some children are proven, so the guard rejects them once they have more than T visits.
+ */
+public class LaunchGuardedSelectionBenchmark
+{
+	public static void main(final String[] args) throws Exception
+	{
+		String game_path = "resources/LOA6x6.lud";
+		String SADL_path = "resources/SADL/PN-MCTS.txt";
+		int[] BRANCHING = {10, 40, 100};
+
+		// Selections per measurement, after as many warm-up selections
+		final int SELECTIONS = 1000000;
+
+		final Game game = GameLoader.loadGameFromFile(new File(game_path));
+		final Context context = new Context(game, new Trial(game));
+		game.start(context);
+
+		FunctionRegistry.setEvalFunction("mctsEval", EvaluationFunctions.mctsEval);
+		FunctionRegistry.setEvalFunction("pnsEval", EvaluationFunctions.pnsEval);
+		final String SADL_input = new String(Files.readAllBytes(Paths.get(SADL_path)));
+		ExecutableSearchAlgorithm interpreted = Compiler.compile(new Parser(new Tokenizer(SADL_input).tokenize()).parse(), CompilerOptions.interpreted());
+		ExecutableSearchAlgorithm compiled = Compiler.compile(new Parser(new Tokenizer(SADL_input).tokenize()).parse(), CompilerOptions.defaults());
+
+		System.out.println("branching, interpreted selections/s (bytes/selection), compiled selections/s (bytes/selection)");
+		for (int branching : BRANCHING) {
+			measure(interpreted, context, branching, SELECTIONS);
+			measure(compiled, context, branching, SELECTIONS);
+			double[] interpretedResult = measure(interpreted, context, branching, SELECTIONS);
+			double[] compiledResult = measure(compiled, context, branching, SELECTIONS);
+
+			System.out.printf("%d, %.0f (%.1f), %.0f (%.1f), %.2fx%n", branching, interpretedResult[0], interpretedResult[1],
+					compiledResult[0], compiledResult[1], compiledResult[0] / interpretedResult[0]);
+		}
+	}
+
+	// Selections per second and bytes allocated per selection, on a maxNode whose children have random statistics
+	private static double[] measure(final ExecutableSearchAlgorithm algorithm, final Context context, final int branching, final int selections)
+	{
+		AttributeLayout layout = algorithm.getLayout();
+		TreeArena tree = new TreeArena(layout, context.state().mover());
+		tree.getFrame().reset(algorithm.getInitialGlobals());
+		int root = tree.addRoot(new Context(context));
+		int first = tree.addChildren(root, branching);
+		int valueEstimate = layout.slotOf("valueEstimate");
+		Random random = new Random(0);
+		int totalVisits = 0;
+		for (int child = first; child < first + branching; child++) {
+			int visits = 1 + random.nextInt(100);
+			totalVisits += visits;
+			tree.setValue(child, AttributeLayout.VISIT_COUNT, visits);
+			tree.setValue(child, valueEstimate, 2 * random.nextDouble() - 1);
+			if (random.nextInt(10) == 0) {
+				tree.setValue(child, layout.proofNumberSlot(), 0);
+			}
+		}
+		tree.setValue(root, AttributeLayout.VISIT_COUNT, totalVisits);
+
+		ExecutableCondition maxNode = (ExecutableCondition) algorithm.getSelection().getStatements().get(0);
+		ExecutableSelectNode selectNode = (ExecutableSelectNode) maxNode.getBody().get(0);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long startBytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		long checksum = 0;
+		long startTime = System.nanoTime();
+		for (int i = 0; i < selections; i++) {
+			checksum += selectNode.select(tree, root);
+		}
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		long bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - startBytes;
+		if (checksum == 0) {
+			System.out.println("No selection made");
+		}
+		return new double[]{selections / seconds, (double) bytes / selections};
+	}
+}
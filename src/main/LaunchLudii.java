@@ -150,17 +150,17 @@ public class LaunchLudii
 		ast.printTree("", true);
 
 
-		ExecutableSearchAlgorithm algorithm = Compiler.compile(ast);
-//		ExecutableSearchAlgorithm algorithm = Compiler.compile(ast);
-
-		System.out.println("Compiled algorithm: " + algorithm);
-
 //		FunctionRegistry.setEvalFunction(EvaluationFunctions.mctsEval);
 
 		// Set the eval functions in the registry with flexible names
 		FunctionRegistry.setEvalFunction("mctsEval", EvaluationFunctions.mctsEval);
 		FunctionRegistry.setEvalFunction("pnsEval", EvaluationFunctions.pnsEval);
 
+		ExecutableSearchAlgorithm algorithm = Compiler.compile(ast);
+//		ExecutableSearchAlgorithm algorithm = Compiler.compile(ast);
+
+		System.out.println("Compiled algorithm: " + algorithm);
+
 
 		// Register our example AIs
 		if (!AIRegistry.registerAI("Example Random AIlolz", () -> {return new RandomAI();}, (game) -> {return true;}))
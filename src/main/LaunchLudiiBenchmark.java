@@ -126,6 +126,18 @@ public class LaunchLudiiBenchmark
 		// Number of threads
 		final int NUM_THREADS = 1;
 
+		// Keep the search tree in a struct-of-arrays TreeArena instead of LudiiNode objects
+		final boolean USE_ARENA = false;
+
+		// Keep the search tree between moves instead of rebuilding it every turn
+		final boolean REUSE_TREE = false;
+
+		// Merge transpositions into a DAG, compare the node counts printed on proof with and without
+		final boolean USE_TRANSPOSITIONS = false;
+
+		// Node budget per search (0 = unbounded), least valuable subtrees are evicted when it is reached
+		final int MAX_NODES = 0;
+
 		try {
 			// Read and compile the SADL file
 			String SADL_input = new String(Files.readAllBytes(Paths.get(SADL_path)));
@@ -134,12 +146,13 @@ public class LaunchLudiiBenchmark
 			Parser parser = new Parser(tokens);
 			ASTNode ast = parser.parse();
 //			ast.printTree("", true);
-			ExecutableSearchAlgorithm algorithm = Compiler.compile(ast);
 
 			// Set the eval functions in the registry with flexible names
 			FunctionRegistry.setEvalFunction("mctsEval", EvaluationFunctions.mctsEval);
 			FunctionRegistry.setEvalFunction("pnsEval", EvaluationFunctions.pnsEval);
 
+			ExecutableSearchAlgorithm algorithm = Compiler.compile(ast);
+
 			// Register Random AI
 			if (!AIRegistry.registerAI("Example Random AI", () -> {return new RandomAI();}, (game) -> {return true;}))
 				System.err.println("WARNING! Failed to register AI because one with that name already existed!");
@@ -176,7 +189,7 @@ public class LaunchLudiiBenchmark
 					// Submit games
 					for (int i = 0; i < NUM_GAMES; i++) {
 						boolean swapPlayers = i >= NUM_GAMES_PER_SIDE;
-						completionService.submit(new GameTask(game, maxSeconds, swapPlayers, algorithm));
+						completionService.submit(new GameTask(game, maxSeconds, swapPlayers, algorithm, USE_ARENA, REUSE_TREE, USE_TRANSPOSITIONS, MAX_NODES));
 					}
 
 					// Collect results
@@ -222,12 +235,20 @@ public class LaunchLudiiBenchmark
 		private final double maxSeconds;
 		private final boolean swapPlayers;
 		private final ExecutableSearchAlgorithm algorithm;
+		private final boolean useArena;
+		private final boolean reuseTree;
+		private final boolean useTranspositions;
+		private final int maxNodes;
 
-		public GameTask(Game game, double maxSeconds, boolean swapPlayers, ExecutableSearchAlgorithm algorithm) {
+		public GameTask(Game game, double maxSeconds, boolean swapPlayers, ExecutableSearchAlgorithm algorithm, boolean useArena, boolean reuseTree, boolean useTranspositions, int maxNodes) {
 			this.game = game;
 			this.maxSeconds = maxSeconds;
 			this.swapPlayers = swapPlayers;
 			this.algorithm = algorithm;
+			this.useArena = useArena;
+			this.reuseTree = reuseTree;
+			this.useTranspositions = useTranspositions;
+			this.maxNodes = maxNodes;
 		}
 
 		@Override
@@ -236,7 +257,12 @@ public class LaunchLudiiBenchmark
 			try {
 				// Create new instances of the AIs
 				AI aiRandom = new RandomAI();
-				AI aiGBFS = new GeneralBestFirstSearch(algorithm);
+				GeneralBestFirstSearch aiGBFS = new GeneralBestFirstSearch(algorithm);
+				aiGBFS.setUseArena(useArena);
+				aiGBFS.setReuseTree(reuseTree);
+				aiGBFS.setUseTranspositions(useTranspositions);
+				aiGBFS.setMaxNodes(maxNodes);
+				aiGBFS.setEvictionPolicy(GeneralBestFirstSearch.EvictionPolicy.LARGEST_PROOF_NUMBER);
 				List<AI> ais = new ArrayList<>();
 				ais.add(null); // Player 0 placeholder
 				if (!swapPlayers) {
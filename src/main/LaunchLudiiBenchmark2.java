@@ -58,12 +58,13 @@ public class LaunchLudiiBenchmark2
 			List<Token> tokens = tokenizer.tokenize();
 			Parser parser = new Parser(tokens);
 			ASTNode ast = parser.parse();
-			ExecutableSearchAlgorithm algorithm = Compiler.compile(ast);
 
 			// Set the eval functions in the registry with flexible names
 			FunctionRegistry.setEvalFunction("mctsEval", EvaluationFunctions.mctsEval);
 			FunctionRegistry.setEvalFunction("pnsEval", EvaluationFunctions.pnsEval);
 
+			ExecutableSearchAlgorithm algorithm = Compiler.compile(ast);
+
 			// Register Random AI
 			if (!AIRegistry.registerAI("Example Random AI", () -> {return new RandomAI();}, (game) -> {return true;}))
 				System.err.println("WARNING! Failed to register AI because one with that name already existed!");
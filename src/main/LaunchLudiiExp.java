@@ -88,16 +88,16 @@ public class LaunchLudiiExp
 	//		ast.printTree("", true);
 
 
+			// Set the eval functions in the registry with flexible names
+			FunctionRegistry.setEvalFunction("mctsEval", EvaluationFunctions.mctsEval);
+			FunctionRegistry.setEvalFunction("pnsEval", EvaluationFunctions.pnsEval);
+
 			ExecutableSearchAlgorithm algorithm1 = Compiler.compile(ast1);
 			ExecutableSearchAlgorithm algorithm2 = Compiler.compile(ast2);
 			ExecutableSearchAlgorithm algorithm3 = Compiler.compile(ast3);
 
 	//		System.out.println("Compiled algorithm: " + algorithm);
 
-			// Set the eval functions in the registry with flexible names
-			FunctionRegistry.setEvalFunction("mctsEval", EvaluationFunctions.mctsEval);
-			FunctionRegistry.setEvalFunction("pnsEval", EvaluationFunctions.pnsEval);
-
 
 			// Register our example AIs
 			if (!AIRegistry.registerAI("Example Random AIlolz", () -> {return new RandomAI();}, (game) -> {return true;}))
@@ -0,0 +1,86 @@
+package main;
+
+import algos.GeneralBestFirstSearch;
+import game.Game;
+import other.GameLoader;
+import other.context.Context;
+import other.trial.Trial;
+import parser.Compiler;
+import parser.ExecutableSearchAlgorithm;
+import parser.Parser;
+import parser.Tokenizer;
+import utils.EvaluationFunctions;
+import utils.FunctionRegistry;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Compares the iterations per second of sequential GeneralBestFirstSearch with the batched
+ * leaf-evaluation pipeline, for MCTS and PN-MCTS from the initial position, at several
+ * numbers of threads.
+ */
+public class LaunchPipelineBenchmark
+{
+	public static void main(final String[] args) throws IOException
+	{
+		String game_path = "resources/LOA6x6.lud";
+		String[] SADL_paths = {"resources/SADL/MCTS.txt", "resources/SADL/PN-MCTS.txt"};
+		int[] THREADS = {2, 4, 8, 16};
+
+		// Leaves selected per batch, and batches evaluated while the next one is selected
+		final int BATCH_SIZE = 16;
+		final int QUEUE_DEPTH = 2;
+
+		// Time per search, and searches averaged per measurement
+		final double MAX_SECONDS = 1.0;
+		final int SEARCHES = 10;
+
+		final Game game = GameLoader.loadGameFromFile(new File(game_path));
+		FunctionRegistry.setEvalFunction("mctsEval", EvaluationFunctions.mctsEval);
+		FunctionRegistry.setEvalFunction("pnsEval", EvaluationFunctions.pnsEval);
+
+		System.out.println("algorithm, threads, sequential iterations/s, pipeline iterations/s, speed-up");
+		for (String SADL_path : SADL_paths) {
+			ExecutableSearchAlgorithm algorithm = Compiler.compile(new Parser(new Tokenizer(new String(Files.readAllBytes(Paths.get(SADL_path)))).tokenize()).parse());
+
+			GeneralBestFirstSearch sequential = new GeneralBestFirstSearch(algorithm);
+			double sequentialRate = iterationsPerSecond(game, sequential, MAX_SECONDS, SEARCHES);
+
+			for (int threads : THREADS) {
+				GeneralBestFirstSearch pipeline = new GeneralBestFirstSearch(algorithm);
+				pipeline.setParallelism(GeneralBestFirstSearch.Parallelism.PIPELINE);
+				pipeline.setNumThreads(threads);
+				pipeline.setBatchSize(BATCH_SIZE);
+				pipeline.setQueueDepth(QUEUE_DEPTH);
+				double pipelineRate = iterationsPerSecond(game, pipeline, MAX_SECONDS, SEARCHES);
+
+				System.out.printf("%s, %d, %.0f, %.0f, %.2fx%n", algorithm.getName(), threads, sequentialRate, pipelineRate,
+						pipelineRate / sequentialRate);
+				System.gc();
+			}
+		}
+	}
+
+	// The first search warms up the compiled stages and the worker threads
+	private static double iterationsPerSecond(final Game game, final GeneralBestFirstSearch ai, final double maxSeconds, final int searches)
+	{
+		final Context context = new Context(game, new Trial(game));
+		game.start(context);
+		ai.initAI(game, context.state().mover());
+
+		ai.selectAction(game, new Context(context), maxSeconds, -1, -1);
+		long iterations = 0;
+		double seconds = 0;
+		for (int i = 0; i < searches; i++) {
+			long startTime = System.nanoTime();
+			ai.selectAction(game, new Context(context), maxSeconds, -1, -1);
+			seconds += (System.nanoTime() - startTime) / 1e9;
+			iterations += ai.getLastIterations();
+		}
+		ai.closeAI();
+		return iterations / seconds;
+	}
+}
@@ -0,0 +1,103 @@
+package main;
+
+import algos.DepthFirstProofNumberSearch;
+import algos.GeneralBestFirstSearch;
+import game.Game;
+import other.AI;
+import other.GameLoader;
+import other.context.Context;
+import other.trial.Trial;
+import parser.Compiler;
+import parser.ExecutableSearchAlgorithm;
+import parser.Parser;
+import parser.Tokenizer;
+import utils.EvaluationFunctions;
+import utils.FunctionRegistry;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compares time-to-proof of best-first PNS (PNS.txt under GeneralBestFirstSearch)
+ * and DepthFirstProofNumberSearch on the LOA endgame positions, for the player to move.
+ */
+public class LaunchProofBenchmark
+{
+	public static void main(final String[] args) throws IOException
+	{
+		String SADL_path = "resources/SADL/PNS.txt";
+		String endgame_dir = "resources/endgame_luds/";
+
+		// Time limit per position and solver
+		final double MAX_SECONDS = 60;
+
+		// DF-PN transposition table size, 2^TABLE_BITS entries of 16 bytes
+		final int TABLE_BITS = 22;
+
+		// Run the best-first side as PN² with second-level searches of this many nodes (0 = plain PNS)
+		final int SECOND_LEVEL_NODES = 0;
+
+		List<String> gamePaths = new ArrayList<>();
+		try (DirectoryStream<Path> ludStream = Files.newDirectoryStream(Paths.get(endgame_dir), "*.lud")) {
+			for (Path ludFile : ludStream) {
+				gamePaths.add(ludFile.toString());
+			}
+		}
+		Collections.sort(gamePaths);
+
+		FunctionRegistry.setEvalFunction("pnsEval", EvaluationFunctions.pnsEval);
+		ExecutableSearchAlgorithm algorithm = Compiler.compile(new Parser(new Tokenizer(new String(Files.readAllBytes(Paths.get(SADL_path)))).tokenize()).parse());
+
+		double totalPns = 0;
+		double totalDfpn = 0;
+		int solvedPns = 0;
+		int solvedDfpn = 0;
+
+		System.out.println("position, PNS seconds, DF-PN seconds, DF-PN result");
+		for (String gamePath : gamePaths) {
+			final Game game = GameLoader.loadGameFromFile(new File(gamePath));
+
+			GeneralBestFirstSearch pns = new GeneralBestFirstSearch(algorithm);
+			pns.setSecondLevelNodes(SECOND_LEVEL_NODES);
+			double pnsSeconds = timeToProof(game, pns, MAX_SECONDS);
+
+			DepthFirstProofNumberSearch dfpn = new DepthFirstProofNumberSearch();
+			dfpn.setTableBits(TABLE_BITS);
+			double dfpnSeconds = timeToProof(game, dfpn, MAX_SECONDS);
+			String dfpnResult = dfpn.isRootProven() ? "proven" : dfpn.isRootDisproven() ? "disproven" : "unsolved";
+
+			// Both solvers stop as soon as the root is solved, so finishing before the limit means a proof
+			if (pnsSeconds < MAX_SECONDS) solvedPns++;
+			if (!dfpnResult.equals("unsolved")) solvedDfpn++;
+			totalPns += pnsSeconds;
+			totalDfpn += dfpnSeconds;
+
+			System.out.printf("%s, %.3f, %.3f, %s%n", new File(gamePath).getName(), pnsSeconds, dfpnSeconds, dfpnResult);
+			System.gc();
+		}
+
+		System.out.printf("%nPNS solved %d/%d in %.1f s, DF-PN solved %d/%d in %.1f s%n",
+				solvedPns, gamePaths.size(), totalPns, solvedDfpn, gamePaths.size(), totalDfpn);
+	}
+
+	private static double timeToProof(final Game game, final AI ai, final double maxSeconds)
+	{
+		final Context context = new Context(game, new Trial(game));
+		game.start(context);
+		final int mover = context.state().mover();
+
+		ai.initAI(game, mover);
+		long startTime = System.nanoTime();
+		ai.selectAction(game, new Context(context), maxSeconds, -1, -1);
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		ai.closeAI();
+		return Math.min(seconds, maxSeconds);
+	}
+}
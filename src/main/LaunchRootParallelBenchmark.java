@@ -0,0 +1,134 @@
+package main;
+
+import algos.GeneralBestFirstSearch;
+import game.Game;
+import other.AI;
+import other.GameLoader;
+import other.context.Context;
+import other.model.Model;
+import other.trial.Trial;
+import parser.Compiler;
+import parser.ExecutableSearchAlgorithm;
+import parser.Parser;
+import parser.Tokenizer;
+import utils.EvaluationFunctions;
+import utils.FunctionRegistry;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how root- or tree-parallel GeneralBestFirstSearch scales with the number of worker threads:
+ * iterations per second from the initial position, and move quality as the score against
+ * the single-threaded search with the same time per move.
+ */
+public class LaunchRootParallelBenchmark
+{
+	public static void main(final String[] args) throws IOException
+	{
+		String game_path = "resources/LOA6x6.lud";
+		String SADL_path = "resources/SADL/MCTS.txt";
+		int[] THREADS = {1, 2, 4, 8, 16};
+
+		// Time per search and move
+		final double MAX_SECONDS = 1.0;
+
+		// Searches averaged per iterations/s measurement
+		final int SEARCHES = 10;
+
+		// Independent trees merged at the end (ROOT), or one tree shared with virtual loss (TREE)
+		final GeneralBestFirstSearch.Parallelism PARALLELISM = GeneralBestFirstSearch.Parallelism.ROOT;
+
+		// Games per thread count against the single-threaded search, half of them with swapped sides
+		final int NUM_GAMES = 40;
+
+		final Game game = GameLoader.loadGameFromFile(new File(game_path));
+		FunctionRegistry.setEvalFunction("mctsEval", EvaluationFunctions.mctsEval);
+		FunctionRegistry.setEvalFunction("pnsEval", EvaluationFunctions.pnsEval);
+		ExecutableSearchAlgorithm algorithm = Compiler.compile(new Parser(new Tokenizer(new String(Files.readAllBytes(Paths.get(SADL_path)))).tokenize()).parse());
+
+		double baseRate = 0;
+		System.out.println("threads, iterations/s, speed-up, score vs 1 thread");
+		for (int threads : THREADS) {
+			double rate = iterationsPerSecond(game, algorithm, threads, PARALLELISM, MAX_SECONDS, SEARCHES);
+			if (threads == 1) {
+				baseRate = rate;
+			}
+			double score = threads == 1 ? 0.5 : scoreAgainstSingleThread(game, algorithm, threads, PARALLELISM, MAX_SECONDS, NUM_GAMES);
+			System.out.printf("%d, %.0f, %.2fx, %.3f%n", threads, rate, rate / baseRate, score);
+			System.gc();
+		}
+	}
+
+	// Iterations of all workers together per second of search
+	private static double iterationsPerSecond(final Game game, final ExecutableSearchAlgorithm algorithm, final int threads,
+			final GeneralBestFirstSearch.Parallelism parallelism, final double maxSeconds, final int searches)
+	{
+		final Context context = new Context(game, new Trial(game));
+		game.start(context);
+
+		GeneralBestFirstSearch ai = new GeneralBestFirstSearch(algorithm);
+		ai.setNumThreads(threads);
+		ai.setParallelism(parallelism);
+		ai.initAI(game, context.state().mover());
+
+		// The first search warms up the compiled stages and the worker threads
+		ai.selectAction(game, new Context(context), maxSeconds, -1, -1);
+		long iterations = 0;
+		double seconds = 0;
+		for (int i = 0; i < searches; i++) {
+			long startTime = System.nanoTime();
+			ai.selectAction(game, new Context(context), maxSeconds, -1, -1);
+			seconds += (System.nanoTime() - startTime) / 1e9;
+			iterations += ai.getLastIterations();
+		}
+		ai.closeAI();
+		return iterations / seconds;
+	}
+
+	// Wins count 1 and draws 1/2, games are played one after another so that they do not compete for cores
+	private static double scoreAgainstSingleThread(final Game game, final ExecutableSearchAlgorithm algorithm, final int threads,
+			final GeneralBestFirstSearch.Parallelism parallelism, final double maxSeconds, final int numGames)
+	{
+		double score = 0;
+		for (int i = 0; i < numGames; i++) {
+			boolean swapPlayers = i >= numGames / 2;
+			GeneralBestFirstSearch parallel = new GeneralBestFirstSearch(algorithm);
+			parallel.setNumThreads(threads);
+			parallel.setParallelism(parallelism);
+			GeneralBestFirstSearch single = new GeneralBestFirstSearch(algorithm);
+
+			List<AI> ais = new ArrayList<>();
+			ais.add(null); // Player 0 placeholder
+			ais.add(swapPlayers ? single : parallel);
+			ais.add(swapPlayers ? parallel : single);
+			int parallelPlayer = swapPlayers ? 2 : 1;
+
+			final Trial trial = new Trial(game);
+			final Context context = new Context(game, trial);
+			game.start(context);
+			for (int p = 1; p <= game.players().count(); ++p) {
+				ais.get(p).initAI(game, p);
+			}
+
+			final Model model = context.model();
+			while (!trial.over()) {
+				model.startNewStep(context, ais, maxSeconds);
+			}
+			parallel.closeAI();
+			single.closeAI();
+
+			final double[] ranking = trial.ranking();
+			if (ranking[parallelPlayer] == 1 && ranking[3 - parallelPlayer] != 1) {
+				score += 1;
+			} else if (ranking[parallelPlayer] == ranking[3 - parallelPlayer]) {
+				score += 0.5;
+			}
+		}
+		return score / numGames;
+	}
+}
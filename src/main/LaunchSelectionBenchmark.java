@@ -0,0 +1,89 @@
+package main;
+
+import game.Game;
+import other.GameLoader;
+import other.context.Context;
+import other.trial.Trial;
+import parser.AttributeLayout;
+import parser.Compiler;
+import parser.CompilerOptions;
+import parser.ExecutableSearchAlgorithm;
+import parser.ExecutableSelectNode;
+import parser.Parser;
+import parser.Tokenizer;
+import parser.TreeArena;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Measures UCT child selections per second on an arena node, with the score evaluated per
+ * child by its closures and over the whole child block by a selection kernel, at several
+ * branching factors.
+ */
+public class LaunchSelectionBenchmark
+{
+	private static final String UCT =
+			"(SearchAlgorithm \"UCT\" (Define C 0.6)"
+			+ " (Selection \"UCT\" (SelectNode argmax (+ valueEstimate (* C (sqrt (/ (log (Parent visitCount)) visitCount))))))"
+			+ " (FinalMoveSelection (SelectNode argmax visitCount)))";
+
+	public static void main(final String[] args)
+	{
+		String game_path = "resources/LOA6x6.lud";
+		int[] BRANCHING = {10, 40, 100};
+
+		// Selections per measurement, after as many warm-up selections
+		final int SELECTIONS = 2000000;
+
+		final Game game = GameLoader.loadGameFromFile(new File(game_path));
+		final Context context = new Context(game, new Trial(game));
+		game.start(context);
+
+		CompilerOptions closureOptions = CompilerOptions.defaults();
+		closureOptions.setVectorizeSelection(false);
+		ExecutableSearchAlgorithm closures = Compiler.compile(new Parser(new Tokenizer(UCT).tokenize()).parse(), closureOptions);
+		ExecutableSearchAlgorithm kernels = Compiler.compile(new Parser(new Tokenizer(UCT).tokenize()).parse(), CompilerOptions.defaults());
+
+		System.out.println("branching, closure selections/s, kernel selections/s");
+		for (int branching : BRANCHING) {
+			selectionsPerSecond(closures, context, branching, SELECTIONS);
+			selectionsPerSecond(kernels, context, branching, SELECTIONS);
+			double closureRate = selectionsPerSecond(closures, context, branching, SELECTIONS);
+			double kernelRate = selectionsPerSecond(kernels, context, branching, SELECTIONS);
+
+			System.out.printf("%d, %.0f, %.0f (%.2fx)%n", branching, closureRate, kernelRate, kernelRate / closureRate);
+		}
+	}
+
+	// A root with the given number of children and random statistics, as after some iterations of a search
+	private static double selectionsPerSecond(final ExecutableSearchAlgorithm algorithm, final Context context, final int branching, final int selections)
+	{
+		AttributeLayout layout = algorithm.getLayout();
+		TreeArena tree = new TreeArena(layout, context.state().mover());
+		int root = tree.addRoot(new Context(context));
+		int first = tree.addChildren(root, branching);
+		int valueEstimate = layout.slotOf("valueEstimate");
+		Random random = new Random(0);
+		int totalVisits = 0;
+		for (int child = first; child < first + branching; child++) {
+			int visits = 1 + random.nextInt(100);
+			totalVisits += visits;
+			tree.setValue(child, AttributeLayout.VISIT_COUNT, visits);
+			tree.setValue(child, valueEstimate, 2 * random.nextDouble() - 1);
+		}
+		tree.setValue(root, AttributeLayout.VISIT_COUNT, totalVisits);
+
+		ExecutableSelectNode selectNode = (ExecutableSelectNode) algorithm.getSelection().getStatements().get(0);
+		long checksum = 0;
+		long startTime = System.nanoTime();
+		for (int i = 0; i < selections; i++) {
+			checksum += selectNode.select(tree, root);
+		}
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		if (checksum == 0) {
+			System.out.println("No selection made");
+		}
+		return selections / seconds;
+	}
+}
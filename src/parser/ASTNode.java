@@ -13,6 +13,9 @@ public class ASTNode {
     private final NodeType type;
     private final List<ASTNode> children;
     private ASTNode parent;
+    private int slot = -1; // attribute slot assigned by the Compiler, or the declared aggregate of an Aggregate, -1 otherwise
+    private int global = -1; // index of a Defined global in the VariableFrame, -1 otherwise
+    private int memo = -1; // memoized expression declared in the AttributeLayout, -1 otherwise
 
     public ASTNode(String value, NodeType type) {
         this.value = value;
@@ -26,6 +29,33 @@ public class ASTNode {
 
     public void setValue(String value) {
         this.value = value;
+        this.slot = -1;
+        this.global = -1;
+        this.memo = -1;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public void setSlot(int slot) {
+        this.slot = slot;
+    }
+
+    public int getGlobal() {
+        return global;
+    }
+
+    public void setGlobal(int global) {
+        this.global = global;
+    }
+
+    public int getMemo() {
+        return memo;
+    }
+
+    public void setMemo(int memo) {
+        this.memo = memo;
     }
 
     public NodeType getType() {
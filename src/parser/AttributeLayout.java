@@ -0,0 +1,229 @@
+package parser;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps node attribute names to integer slots in a flat double[] per node.
+ * The compiler interns every attribute a SADL program touches, so the executables
+ * only deal with slot indices at search time. Names first seen at runtime through
+ * the string-keyed Node methods are interned lazily.
+ * The compiler also declares the aggregates over a child attribute that the program reads,
+ * and parents created afterwards keep those up to date as their children change.
+ * Memoized expressions are declared with the attributes they read, and only writes to those
+ * attributes advance the modification stamp of a node.
+ * The search itself maintains visitCount and nodeType, which are always stored. A layout built
+ * from the live attributes of a program leaves out the other built-in attributes it never uses,
+ * and reads of those return their default value.
+ */
+public class AttributeLayout {
+    public static final int VISIT_COUNT = 0;
+    public static final int NODE_TYPE = 1;
+    // Attributes every node has, with their default values
+    private static final Map<String, Double> BUILT_IN = new LinkedHashMap<>();
+
+    static {
+        BUILT_IN.put("visitCount", 0.0);
+        BUILT_IN.put("nodeType", 0.0);
+        BUILT_IN.put("valueEstimate", 0.0);
+        BUILT_IN.put("proofNumber", 1.0);
+        BUILT_IN.put("disproofNumber", 1.0);
+    }
+
+    // A memoized value followed by the modification stamp of the node it was computed at
+    public static final int MEMO_STRIDE = 2;
+
+    private final Map<String, Integer> slots = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[0];
+    private volatile double[] defaults = new double[0];
+    private volatile int[] aggregateOperations = new int[0];
+    private volatile int[] aggregateSlots = new int[0];
+    private volatile int[][] aggregatesBySlot = new int[0][]; // null where no aggregate reads the slot
+    private volatile boolean[] memoInputs = new boolean[0]; // slots read by a memoized expression
+    private volatile int numMemos;
+    private final Set<String> live; // attributes the program reads or the search needs, null when all are stored
+    private volatile int proofNumber = -1;
+    private volatile int disproofNumber = -1;
+
+    public AttributeLayout() {
+        this(null);
+    }
+
+    // Stores visitCount and nodeType, and of the other built-in attributes only the live ones, or all if live is null
+    public AttributeLayout(Set<String> live) {
+        this.live = live;
+        for (Map.Entry<String, Double> attribute : BUILT_IN.entrySet()) {
+            if (isLive(attribute.getKey())) {
+                intern(attribute.getKey(), attribute.getValue());
+            }
+        }
+    }
+
+    public int intern(String name) {
+        return intern(name, BUILT_IN.getOrDefault(name, 0.0));
+    }
+
+    // Whether Sets of the attribute can have an effect, i.e. something reads it
+    public boolean isLive(String name) {
+        return live == null || live.contains(name) || name.equals("visitCount") || name.equals("nodeType");
+    }
+
+    private synchronized int intern(String name, double defaultValue) {
+        Integer slot = slots.get(name);
+        if (slot != null) {
+            return slot;
+        }
+        int newSlot = names.length;
+        String[] newNames = Arrays.copyOf(names, newSlot + 1);
+        double[] newDefaults = Arrays.copyOf(defaults, newSlot + 1);
+        newNames[newSlot] = name;
+        newDefaults[newSlot] = defaultValue;
+        defaults = newDefaults;
+        names = newNames;
+        slots.put(name, newSlot);
+        if (name.equals("proofNumber")) {
+            proofNumber = newSlot;
+        } else if (name.equals("disproofNumber")) {
+            disproofNumber = newSlot;
+        }
+        return newSlot;
+    }
+
+    // Returns the index of the aggregate, or -1 for operations that cannot be cached
+    public synchronized int declareAggregate(String operation, int slot) {
+        int code = ChildAggregates.operation(operation);
+        if (code < 0 || slot < 0) {
+            return -1;
+        }
+        for (int aggregate = 0; aggregate < aggregateSlots.length; aggregate++) {
+            if (aggregateOperations[aggregate] == code && aggregateSlots[aggregate] == slot) {
+                return aggregate;
+            }
+        }
+        int aggregate = aggregateSlots.length;
+        int[][] bySlot = Arrays.copyOf(aggregatesBySlot, Math.max(aggregatesBySlot.length, slot + 1));
+        bySlot[slot] = bySlot[slot] == null ? new int[]{aggregate} : appended(bySlot[slot], aggregate);
+        aggregateOperations = appended(aggregateOperations, code);
+        aggregateSlots = appended(aggregateSlots, slot);
+        aggregatesBySlot = bySlot;
+        return aggregate;
+    }
+
+    private static int[] appended(int[] array, int value) {
+        int[] grown = Arrays.copyOf(array, array.length + 1);
+        grown[array.length] = value;
+        return grown;
+    }
+
+    // Returns the index of a memoized expression that reads the given attribute slots
+    public synchronized int declareMemo(int[] reads) {
+        boolean[] inputs = memoInputs.clone();
+        for (int slot : reads) {
+            if (slot >= inputs.length) {
+                inputs = Arrays.copyOf(inputs, slot + 1);
+            }
+            inputs[slot] = true;
+        }
+        memoInputs = inputs;
+        return numMemos++;
+    }
+
+    public int numMemos() {
+        return numMemos;
+    }
+
+    // Whether writing the slot can change the value of a memoized expression
+    public boolean isMemoInput(int slot) {
+        boolean[] inputs = memoInputs;
+        return slot < inputs.length && inputs[slot];
+    }
+
+    // Memoized values and the stamps they were computed at, all empty; null if nothing is memoized
+    public double[] newMemoStorage() {
+        int count = numMemos;
+        if (count == 0) {
+            return null;
+        }
+        double[] memos = new double[count * MEMO_STRIDE];
+        for (int memo = 0; memo < count; memo++) {
+            memos[memo * MEMO_STRIDE + 1] = -1;
+        }
+        return memos;
+    }
+
+    public int numAggregates() {
+        return aggregateSlots.length;
+    }
+
+    public int aggregateOperation(int aggregate) {
+        return aggregateOperations[aggregate];
+    }
+
+    public int aggregateSlot(int aggregate) {
+        return aggregateSlots[aggregate];
+    }
+
+    // The aggregates over a slot, null if there are none
+    public int[] aggregatesOf(int slot) {
+        int[][] bySlot = aggregatesBySlot;
+        return slot < bySlot.length ? bySlot[slot] : null;
+    }
+
+    // Fresh aggregate state for a new node without children, null if nothing is aggregated
+    public double[] newAggregateStorage() {
+        int[] operations = aggregateOperations;
+        if (operations.length == 0) {
+            return null;
+        }
+        double[] state = new double[operations.length * ChildAggregates.STRIDE];
+        for (int aggregate = 0; aggregate < operations.length; aggregate++) {
+            ChildAggregates.reset(operations[aggregate], state, aggregate * ChildAggregates.STRIDE);
+        }
+        return state;
+    }
+
+    public int slotOf(String name) {
+        Integer slot = slots.get(name);
+        return slot != null ? slot : -1;
+    }
+
+    public String nameOf(int slot) {
+        return names[slot];
+    }
+
+    public double defaultValue(int slot) {
+        return defaults[slot];
+    }
+
+    // Default of an attribute that may have no slot
+    public double defaultValue(String name) {
+        int slot = slotOf(name);
+        return slot >= 0 ? defaults[slot] : BUILT_IN.getOrDefault(name, 0.0);
+    }
+
+    // Slots of the proof and disproof number, -1 when they are not stored
+    public int proofNumberSlot() {
+        return proofNumber;
+    }
+
+    public int disproofNumberSlot() {
+        return disproofNumber;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    // Fresh attribute storage for a new node, initialised with the default values
+    public double[] newStorage() {
+        return defaults.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "AttributeLayout{" + Arrays.toString(names) + '}';
+    }
+}
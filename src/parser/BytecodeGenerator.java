@@ -0,0 +1,952 @@
+package parser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates one JVM class per compiled search algorithm, in which the statement list of the
+ * Selection, Evaluation and Backpropagation phases each becomes a single straight-line method.
+ * Arithmetic, attribute and global reads and Sets, conditions and unguarded SelectNode loops are
+ * emitted inline; aggregates, external functions, memoized score parts and guarded SelectNodes
+ * call the closures and executables they were compiled to. Class files are written by hand at
+ * version 49, which needs no stack map frames, and are defined as hidden classes that are
+ * unloaded with their algorithm.
+ */
+public class BytecodeGenerator {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final String CLASS_NAME = "parser/GeneratedSadl";
+    private static final String SUPER_NAME = "parser/GeneratedCode";
+    private static final String NODE = "parser/Node";
+    private static final String TREE = "parser/TreeArena";
+    private static final String STATEMENT = "parser/ExecutableStatement";
+    private static final String EXPRESSION = "parser/CompiledExpression";
+    private static final String FRAME = "parser/VariableFrame";
+    private static final String CONSTRUCTOR = "([Lparser/CompiledExpression;[Lparser/ExecutableStatement;)V";
+    private static final String NODE_BLOCK = "(Lparser/Node;)Lparser/Node;";
+    private static final String TREE_BLOCK = "(Lparser/TreeArena;I)I";
+
+    private static final int ACONST_NULL = 0x01, ICONST_0 = 0x03, DCONST_0 = 0x0e, DCONST_1 = 0x0f;
+    private static final int BIPUSH = 0x10, SIPUSH = 0x11, LDC2_W = 0x14;
+    private static final int ILOAD = 0x15, DLOAD = 0x18, ALOAD = 0x19, ISTORE = 0x36, DSTORE = 0x39, ASTORE = 0x3a;
+    private static final int DUP2 = 0x5c, AALOAD = 0x32, IADD = 0x60, DADD = 0x63, DSUB = 0x67, DMUL = 0x6b, DDIV = 0x6f, IREM = 0x70;
+    private static final int IINC = 0x84, I2D = 0x87, DCMPL = 0x97, DCMPG = 0x98;
+    private static final int IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d, IFLE = 0x9e;
+    private static final int IF_ICMPEQ = 0x9f, IF_ICMPNE = 0xa0, IF_ICMPGE = 0xa2, IF_ACMPEQ = 0xa5, GOTO = 0xa7;
+    private static final int IRETURN = 0xac, ARETURN = 0xb0, RETURN = 0xb1, GETFIELD = 0xb4;
+    private static final int INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, INVOKEINTERFACE = 0xb9;
+    private static final int CHECKCAST = 0xc0, IFNULL = 0xc6;
+
+    private final ConstantPool pool = new ConstantPool();
+    private final List<CompiledExpression> expressions = new ArrayList<>();
+    private final List<ExecutableStatement> statements = new ArrayList<>();
+    // Subexpressions of the current expression that the Optimizer shared, and the locals holding their values
+    private Map<ASTNode, Integer> shared = new IdentityHashMap<>();
+    private Map<ASTNode, Integer> sharedLocals = new IdentityHashMap<>();
+    private boolean selecting; // emitting a SelectNode score, whose attribute reads include virtual loss
+
+    /**
+     * Replaces the phase statements of the algorithm by calls into a generated class.
+     * Returns false, leaving the algorithm as it was, when the class could not be generated.
+     */
+    public static boolean generate(ExecutableSearchAlgorithm algorithm) {
+        List<List<ExecutableStatement>> blocks = new ArrayList<>();
+        List<Boolean> selections = new ArrayList<>();
+        if (algorithm.getSelection() != null && algorithm.getSelection().getStatements() != null) {
+            blocks.add(algorithm.getSelection().getStatements());
+            selections.add(true);
+        }
+        if (algorithm.getEvaluation() != null) {
+            blocks.add(algorithm.getEvaluation().getStatements());
+            selections.add(false);
+        }
+        if (algorithm.getBackpropagation() != null) {
+            blocks.add(algorithm.getBackpropagation().getStatements());
+            selections.add(false);
+        }
+
+        GeneratedCode code;
+        try {
+            BytecodeGenerator generator = new BytecodeGenerator();
+            byte[] bytes = generator.generateClass(blocks, selections);
+            // Not a strong hidden class, so it is unloaded once the algorithm is no longer reachable
+            Class<?> generated = LOOKUP.defineHiddenClass(bytes, true).lookupClass();
+            code = (GeneratedCode) generated.getConstructor(CompiledExpression[].class, ExecutableStatement[].class)
+                    .newInstance(generator.expressions.toArray(new CompiledExpression[0]),
+                            generator.statements.toArray(new ExecutableStatement[0]));
+        } catch (RuntimeException | ReflectiveOperationException | LinkageError | IOException e) {
+            return false;
+        }
+
+        int block = 0;
+        if (algorithm.getSelection() != null && algorithm.getSelection().getStatements() != null) {
+            algorithm.getSelection().setStatements(generatedBlock(code, block++));
+        }
+        if (algorithm.getEvaluation() != null) {
+            algorithm.getEvaluation().setStatements(generatedBlock(code, block++));
+        }
+        if (algorithm.getBackpropagation() != null) {
+            algorithm.getBackpropagation().setStatements(generatedBlock(code, block));
+        }
+        return true;
+    }
+
+    private static List<ExecutableStatement> generatedBlock(GeneratedCode code, int block) {
+        List<ExecutableStatement> statements = new ArrayList<>();
+        statements.add(new GeneratedStatement(code, block));
+        return statements;
+    }
+
+    private byte[] generateClass(List<List<ExecutableStatement>> blocks, List<Boolean> selections) throws IOException {
+        List<byte[]> methods = new ArrayList<>();
+        methods.add(constructor());
+        methods.add(dispatch(blocks.size(), false));
+        methods.add(dispatch(blocks.size(), true));
+        for (int block = 0; block < blocks.size(); block++) {
+            methods.add(blockMethod(block, blocks.get(block), selections.get(block), false));
+            methods.add(blockMethod(block, blocks.get(block), selections.get(block), true));
+        }
+
+        int thisClass = pool.classRef(CLASS_NAME);
+        int superClass = pool.classRef(SUPER_NAME);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(49);
+        pool.writeTo(out);
+        out.writeShort(0x0031); // public final super
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(0); // interfaces
+        out.writeShort(0); // fields
+        out.writeShort(methods.size());
+        for (byte[] method : methods) {
+            out.write(method);
+        }
+        out.writeShort(0); // attributes
+        return bytes.toByteArray();
+    }
+
+    private byte[] constructor() throws IOException {
+        Code code = new Code(false, 3);
+        code.load(ALOAD, 0);
+        code.load(ALOAD, 1);
+        code.load(ALOAD, 2);
+        code.invoke(INVOKESPECIAL, SUPER_NAME, "<init>", CONSTRUCTOR);
+        code.op(RETURN, 0);
+        return method(0x0001, "<init>", CONSTRUCTOR, code);
+    }
+
+    // execute(block, ...) calls the private method of the requested block
+    private byte[] dispatch(int numBlocks, boolean arena) throws IOException {
+        Code code = new Code(arena, arena ? 4 : 3);
+        for (int block = 0; block < numBlocks; block++) {
+            Label next = new Label();
+            if (block < numBlocks - 1) {
+                code.load(ILOAD, 1);
+                code.pushInt(block);
+                code.branch(IF_ICMPNE, next, -2);
+            }
+            code.load(ALOAD, 0);
+            code.load(ALOAD, 2);
+            if (arena) {
+                code.load(ILOAD, 3);
+            }
+            code.invoke(INVOKESPECIAL, CLASS_NAME, blockName(block, arena), arena ? TREE_BLOCK : NODE_BLOCK);
+            code.op(arena ? IRETURN : ARETURN, -1);
+            code.mark(next);
+        }
+        if (numBlocks == 0) {
+            code.load(arena ? ILOAD : ALOAD, arena ? 3 : 2);
+            code.op(arena ? IRETURN : ARETURN, -1);
+        }
+        return method(0x0001, "execute", arena ? "(ILparser/TreeArena;I)I" : "(ILparser/Node;)Lparser/Node;", code);
+    }
+
+    private static String blockName(int block, boolean arena) {
+        return (arena ? "tree" : "node") + block;
+    }
+
+    // The node lives in a local that statements overwrite when they select a child, as in the executables
+    private byte[] blockMethod(int block, List<ExecutableStatement> blockStatements, boolean selection, boolean arena) throws IOException {
+        Code code = new Code(arena, arena ? 3 : 2);
+        int node = arena ? 2 : 1;
+        int previous = -1;
+        if (selection) {
+            // Selection stops at the first statement that selects a child
+            previous = code.newLocal(1);
+            code.load(code.nodeLoad(), node);
+            code.store(code.nodeStore(), previous);
+        }
+        for (ExecutableStatement statement : blockStatements) {
+            emitStatement(code, statement, node);
+            if (selection) {
+                Label unchanged = new Label();
+                code.load(code.nodeLoad(), node);
+                code.load(code.nodeLoad(), previous);
+                code.branch(arena ? IF_ICMPEQ : IF_ACMPEQ, unchanged, -2);
+                code.load(code.nodeLoad(), node);
+                code.op(arena ? IRETURN : ARETURN, -1);
+                code.mark(unchanged);
+            }
+        }
+        code.load(code.nodeLoad(), node);
+        code.op(arena ? IRETURN : ARETURN, -1);
+        return method(0x0002, blockName(block, arena), arena ? TREE_BLOCK : NODE_BLOCK, code);
+    }
+
+    private void emitStatement(Code code, ExecutableStatement statement, int node) {
+        if (statement instanceof ExecutableSet && ((ExecutableSet) statement).getSlot() >= 0) {
+            ExecutableSet set = (ExecutableSet) statement;
+            if (code.arena) {
+                code.load(ALOAD, 1);
+                code.load(ILOAD, node);
+                code.pushInt(set.getSlot());
+                emitRoot(code, set.getExpression(), node);
+                code.invoke(INVOKEVIRTUAL, TREE, "setValue", "(IID)V");
+            } else {
+                // The retry loop of ExecutableSet while several threads share the tree
+                Label plain = new Label();
+                Label retry = new Label();
+                Label done = new Label();
+                emitFrame(code, node);
+                code.invoke(INVOKEVIRTUAL, FRAME, "isConcurrent", "()Z");
+                code.branch(IFEQ, plain, -1);
+                code.mark(retry);
+                code.load(ALOAD, node);
+                code.pushInt(set.getSlot());
+                code.load(ALOAD, node);
+                code.pushInt(set.getSlot());
+                code.invoke(INVOKEVIRTUAL, NODE, "getValue", "(I)D");
+                emitRoot(code, set.getExpression(), node);
+                code.invoke(INVOKEVIRTUAL, NODE, "compareAndSetValue", "(IDD)Z");
+                code.branch(IFEQ, retry, -1);
+                code.branch(GOTO, done, 0);
+                code.mark(plain);
+                code.load(ALOAD, node);
+                code.pushInt(set.getSlot());
+                emitRoot(code, set.getExpression(), node);
+                code.invoke(INVOKEVIRTUAL, NODE, "setValue", "(ID)V");
+                code.mark(done);
+            }
+        } else if (statement instanceof ExecutableSet && ((ExecutableSet) statement).getGlobal() >= 0) {
+            ExecutableSet set = (ExecutableSet) statement;
+            emitFrame(code, node);
+            code.pushInt(set.getGlobal());
+            emitRoot(code, set.getExpression(), node);
+            code.invoke(INVOKEVIRTUAL, FRAME, "set", "(ID)V");
+        } else if (statement instanceof ExecutableCondition && isInlined((ExecutableCondition) statement)) {
+            ExecutableCondition condition = (ExecutableCondition) statement;
+            Label skip = new Label();
+            beginRoot(condition.getCondition());
+            emitCondition(code, condition.getCondition(), node, skip);
+            for (ExecutableStatement bodyStatement : condition.getBody()) {
+                emitStatement(code, bodyStatement, node);
+            }
+            code.mark(skip);
+        } else if (statement instanceof ExecutableSelectNode && isInlined((ExecutableSelectNode) statement)
+                && !(code.arena && ((ExecutableSelectNode) statement).hasKernel())) {
+            emitSelect(code, (ExecutableSelectNode) statement, node);
+        } else {
+            // Guarded SelectNodes and arena selection by a kernel run through their executable
+            statements.add(statement);
+            code.load(ALOAD, 0);
+            code.field(GETFIELD, SUPER_NAME, "statements", "[Lparser/ExecutableStatement;");
+            code.pushInt(statements.size() - 1);
+            code.op(AALOAD, -1);
+            if (code.arena) {
+                code.load(ALOAD, 1);
+                code.load(ILOAD, node);
+                code.invoke(INVOKEINTERFACE, STATEMENT, "execute", TREE_BLOCK);
+            } else {
+                code.load(ALOAD, node);
+                code.invoke(INVOKEINTERFACE, STATEMENT, "execute", NODE_BLOCK);
+            }
+            code.store(code.nodeStore(), node);
+        }
+    }
+
+    // The argmax/argmin loop of ExecutableSelectNode, with the same random tie-breaking
+    private void emitSelect(Code code, ExecutableSelectNode selectNode, int node) {
+        boolean argmax = selectNode.getFunction().equals("argmax");
+        Label loop = new Label();
+        Label next = new Label();
+        Label notBetter = new Label();
+        Label done = new Label();
+        Label end = new Label();
+
+        int child = code.newLocal(1);
+        int bestChild = code.newLocal(1);
+        int bestValue = code.newLocal(2);
+        int numBestFound = code.newLocal(1);
+        int value = code.newLocal(2);
+        int limit = code.newLocal(1);
+        int index = code.arena ? child : code.newLocal(1);
+        int children = code.arena ? -1 : code.newLocal(1);
+
+        if (code.arena) {
+            code.load(ALOAD, 1);
+            code.load(ILOAD, node);
+            code.invoke(INVOKEVIRTUAL, TREE, "getChildCount", "(I)I");
+            code.store(ISTORE, limit);
+            code.load(ILOAD, limit);
+            code.branch(IFEQ, end, -1);
+            code.load(ALOAD, 1);
+            code.load(ILOAD, node);
+            code.invoke(INVOKEVIRTUAL, TREE, "getFirstChild", "(I)I");
+            code.store(ISTORE, child);
+            code.load(ILOAD, child);
+            code.load(ILOAD, limit);
+            code.op(IADD, -1);
+            code.store(ISTORE, limit);
+            code.pushInt(-1);
+            code.store(ISTORE, bestChild);
+        } else {
+            code.load(ALOAD, node);
+            code.invoke(INVOKEVIRTUAL, NODE, "getChildren", "()Ljava/util/List;");
+            code.store(ASTORE, children);
+            code.load(ALOAD, children);
+            code.branch(IFNULL, end, -1);
+            code.load(ALOAD, children);
+            code.invoke(INVOKEINTERFACE, "java/util/List", "size", "()I");
+            code.store(ISTORE, limit);
+            code.load(ILOAD, limit);
+            code.branch(IFEQ, end, -1);
+            code.pushInt(0);
+            code.store(ISTORE, index);
+            code.op(ACONST_NULL, 1);
+            code.store(ASTORE, bestChild);
+        }
+        // Child invariants are evaluated on the selecting node into locals, which the loop reads instead
+        selecting = true;
+        beginRoot(selectNode.getScore());
+        List<ASTNode> invariants = ExpressionCompiler.childInvariants(selectNode.getScore());
+        for (ASTNode invariant : invariants) {
+            emitExpression(code, ExpressionCompiler.onParent(invariant), node);
+            int local = code.newLocal(2);
+            code.store(DSTORE, local);
+            sharedLocals.put(invariant, local);
+        }
+        code.pushDouble(argmax ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY);
+        code.store(DSTORE, bestValue);
+        code.pushInt(0);
+        code.store(ISTORE, numBestFound);
+
+        code.mark(loop);
+        code.load(ILOAD, index);
+        code.load(ILOAD, limit);
+        code.branch(IF_ICMPGE, done, -2);
+        if (!code.arena) {
+            code.load(ALOAD, children);
+            code.load(ILOAD, index);
+            code.invoke(INVOKEINTERFACE, "java/util/List", "get", "(I)Ljava/lang/Object;");
+            code.type(CHECKCAST, NODE);
+            code.store(ASTORE, child);
+        }
+        emitExpression(code, selectNode.getScore(), child);
+        code.store(DSTORE, value);
+        selecting = false;
+
+        code.load(DLOAD, value);
+        code.load(DLOAD, bestValue);
+        code.op(argmax ? DCMPL : DCMPG, -3);
+        code.branch(argmax ? IFLE : IFGE, notBetter, -1);
+        code.load(DLOAD, value);
+        code.store(DSTORE, bestValue);
+        code.load(code.nodeLoad(), child);
+        code.store(code.nodeStore(), bestChild);
+        code.pushInt(1);
+        code.store(ISTORE, numBestFound);
+        code.branch(GOTO, next, 0);
+
+        code.mark(notBetter);
+        code.load(DLOAD, value);
+        code.load(DLOAD, bestValue);
+        code.op(DCMPL, -3);
+        code.branch(IFNE, next, -1);
+        code.invoke(INVOKESTATIC, "java/util/concurrent/ThreadLocalRandom", "current", "()Ljava/util/concurrent/ThreadLocalRandom;");
+        code.invoke(INVOKEVIRTUAL, "java/util/concurrent/ThreadLocalRandom", "nextInt", "()I");
+        code.increment(numBestFound);
+        code.load(ILOAD, numBestFound);
+        code.op(IREM, -1);
+        code.branch(IFNE, next, -1);
+        code.load(code.nodeLoad(), child);
+        code.store(code.nodeStore(), bestChild);
+
+        code.mark(next);
+        code.increment(index);
+        code.branch(GOTO, loop, 0);
+
+        code.mark(done);
+        code.load(code.nodeLoad(), bestChild);
+        code.store(code.nodeStore(), node);
+        code.mark(end);
+    }
+
+    private static boolean isInlined(ExecutableCondition condition) {
+        return condition.getBody() != null && isSupported(condition.getCondition());
+    }
+
+    private static boolean isInlined(ExecutableSelectNode selectNode) {
+        return selectNode.getGuard() == null
+                && (selectNode.getFunction().equals("argmax") || selectNode.getFunction().equals("argmin"));
+    }
+
+    private static boolean isSupported(ASTNode condition) {
+        switch (condition.getValue()) {
+            case "eq":
+            case "neq":
+            case "lt":
+            case "gt":
+            case "lte":
+            case "gte":
+                return true;
+            case "and":
+            case "or":
+                return isSupported(condition.getChildren().get(0)) && isSupported(condition.getChildren().get(1));
+            default:
+                return false;
+        }
+    }
+
+    // Jumps to whenFalse if the condition does not hold, falls through otherwise; NaN compares as in Java
+    private void emitCondition(Code code, ASTNode condition, int node, Label whenFalse) {
+        List<ASTNode> children = condition.getChildren();
+        switch (condition.getValue()) {
+            case "and":
+                emitCondition(code, children.get(0), node, whenFalse);
+                emitCondition(code, children.get(1), node, whenFalse);
+                return;
+            case "or": {
+                Label second = new Label();
+                Label holds = new Label();
+                emitCondition(code, children.get(0), node, second);
+                code.branch(GOTO, holds, 0);
+                code.mark(second);
+                emitCondition(code, children.get(1), node, whenFalse);
+                code.mark(holds);
+                return;
+            }
+            default:
+                break;
+        }
+
+        emitExpression(code, children.get(0), node);
+        emitExpression(code, children.get(1), node);
+        switch (condition.getValue()) {
+            case "eq":
+                code.op(DCMPL, -3);
+                code.branch(IFNE, whenFalse, -1);
+                break;
+            case "neq":
+                code.op(DCMPL, -3);
+                code.branch(IFEQ, whenFalse, -1);
+                break;
+            case "lt":
+                code.op(DCMPG, -3);
+                code.branch(IFGE, whenFalse, -1);
+                break;
+            case "gt":
+                code.op(DCMPL, -3);
+                code.branch(IFLE, whenFalse, -1);
+                break;
+            case "lte":
+                code.op(DCMPG, -3);
+                code.branch(IFGT, whenFalse, -1);
+                break;
+            case "gte":
+                code.op(DCMPL, -3);
+                code.branch(IFLT, whenFalse, -1);
+                break;
+            default:
+                throw new RuntimeException("Unexpected condition: " + condition.getValue());
+        }
+    }
+
+    private void beginRoot(ASTNode root) {
+        shared = ExpressionCompiler.sharedSubexpressions(root);
+        sharedLocals = new IdentityHashMap<>();
+    }
+
+    private void emitRoot(Code code, ASTNode expression, int node) {
+        beginRoot(expression);
+        emitExpression(code, expression, node);
+    }
+
+    // The first evaluation of a shared subexpression keeps its value in a local for the others
+    private void emitExpression(Code code, ASTNode expression, int node) {
+        Integer local = sharedLocals.get(expression);
+        if (local != null) {
+            code.load(DLOAD, local);
+            return;
+        }
+        emitNode(code, expression, node);
+        if (shared.containsKey(expression)) {
+            local = code.newLocal(2);
+            code.op(DUP2, 2);
+            code.store(DSTORE, local);
+            sharedLocals.put(expression, local);
+        }
+    }
+
+    private void emitNode(Code code, ASTNode expression, int node) {
+        List<ASTNode> children = expression.getChildren();
+        if (expression.getMemo() >= 0) {
+            // The closure keeps the value on the node
+            emitClosure(code, expression, node);
+            return;
+        }
+        switch (expression.getValue()) {
+            case "+":
+            case "-":
+            case "*":
+                emitExpression(code, children.get(0), node);
+                emitExpression(code, children.get(1), node);
+                code.op(expression.getValue().equals("+") ? DADD : expression.getValue().equals("-") ? DSUB : DMUL, -2);
+                return;
+            case "/": {
+                // Denominator first, and division by zero divides by 1
+                int divisor = code.newLocal(2);
+                Label nonZero = new Label();
+                emitExpression(code, children.get(1), node);
+                code.store(DSTORE, divisor);
+                code.load(DLOAD, divisor);
+                code.pushDouble(0.0);
+                code.op(DCMPL, -3);
+                code.branch(IFNE, nonZero, -1);
+                code.pushDouble(1.0);
+                code.store(DSTORE, divisor);
+                code.mark(nonZero);
+                emitExpression(code, children.get(0), node);
+                code.load(DLOAD, divisor);
+                code.op(DDIV, -2);
+                return;
+            }
+            case "sqrt":
+            case "log":
+                emitExpression(code, children.get(0), node);
+                code.invoke(INVOKESTATIC, "java/lang/Math", expression.getValue(), "(D)D");
+                return;
+            case "orNode":
+            case "maxNode":
+            case "false":
+                code.pushDouble(0.0);
+                return;
+            case "andNode":
+            case "minNode":
+            case "true":
+                code.pushDouble(1.0);
+                return;
+            case "unknown":
+                code.pushDouble(-1.0);
+                return;
+            case "inf":
+                code.pushDouble(Double.POSITIVE_INFINITY);
+                return;
+            case "numChildren":
+                if (code.arena) {
+                    code.load(ALOAD, 1);
+                    code.load(ILOAD, node);
+                    code.invoke(INVOKEVIRTUAL, TREE, "getChildCount", "(I)I");
+                } else {
+                    code.load(ALOAD, node);
+                    code.invoke(INVOKEVIRTUAL, NODE, "getChildren", "()Ljava/util/List;");
+                    code.invoke(INVOKEINTERFACE, "java/util/List", "size", "()I");
+                }
+                code.op(I2D, 1);
+                return;
+            case "depth":
+                if (code.arena) {
+                    code.load(ALOAD, 1);
+                    code.load(ILOAD, node);
+                    code.invoke(INVOKEVIRTUAL, TREE, "getDepth", "(I)I");
+                } else {
+                    code.load(ALOAD, node);
+                    code.invoke(INVOKEVIRTUAL, NODE, "getDepth", "()I");
+                }
+                code.op(I2D, 1);
+                return;
+            case "Parent": {
+                int parent = code.newLocal(1);
+                if (code.arena) {
+                    code.load(ALOAD, 1);
+                    code.load(ILOAD, node);
+                    code.invoke(INVOKESTATIC, SUPER_NAME, "parentOf", TREE_BLOCK);
+                    code.store(ISTORE, parent);
+                } else {
+                    code.load(ALOAD, node);
+                    code.invoke(INVOKESTATIC, SUPER_NAME, "parentOf", NODE_BLOCK);
+                    code.store(ASTORE, parent);
+                }
+                emitExpression(code, children.get(0), parent);
+                return;
+            }
+            case "Aggregate":
+            case "ExternalFunction":
+                emitClosure(code, expression, node);
+                return;
+            default:
+                if (expression.getSlot() >= 0) {
+                    if (code.arena) {
+                        code.load(ALOAD, 1);
+                        code.load(ILOAD, node);
+                        code.pushInt(expression.getSlot());
+                        code.invoke(INVOKEVIRTUAL, TREE, "getValue", "(II)D");
+                    } else {
+                        code.load(ALOAD, node);
+                        code.pushInt(expression.getSlot());
+                        code.invoke(INVOKEVIRTUAL, NODE, selecting ? "selectionValue" : "getValue", "(I)D");
+                    }
+                    return;
+                }
+                if (expression.getGlobal() >= 0) {
+                    emitFrame(code, node);
+                    code.pushInt(expression.getGlobal());
+                    code.invoke(INVOKEVIRTUAL, FRAME, "get", "(I)D");
+                    return;
+                }
+                try {
+                    code.pushDouble(Double.parseDouble(expression.getValue()));
+                } catch (NumberFormatException e) {
+                    emitClosure(code, expression, node);
+                }
+        }
+    }
+
+    private static void emitFrame(Code code, int node) {
+        if (code.arena) {
+            code.load(ALOAD, 1);
+            code.invoke(INVOKEVIRTUAL, TREE, "getFrame", "()Lparser/VariableFrame;");
+        } else {
+            code.load(ALOAD, node);
+            code.invoke(INVOKEVIRTUAL, NODE, "getFrame", "()Lparser/VariableFrame;");
+        }
+    }
+
+    private void emitClosure(Code code, ASTNode expression, int node) {
+        expressions.add(selecting ? ExpressionCompiler.compileSelection(expression) : ExpressionCompiler.compile(expression));
+        code.load(ALOAD, 0);
+        code.field(GETFIELD, SUPER_NAME, "expressions", "[Lparser/CompiledExpression;");
+        code.pushInt(expressions.size() - 1);
+        code.op(AALOAD, -1);
+        if (code.arena) {
+            code.load(ALOAD, 1);
+            code.load(ILOAD, node);
+            code.invoke(INVOKEVIRTUAL, EXPRESSION, "evaluate", "(Lparser/TreeArena;I)D");
+        } else {
+            code.load(ALOAD, node);
+            code.invoke(INVOKEVIRTUAL, EXPRESSION, "evaluate", "(Lparser/Node;)D");
+        }
+    }
+
+    private byte[] method(int access, String name, String descriptor, Code code) throws IOException {
+        byte[] instructions = code.finish();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(access);
+        out.writeShort(pool.utf8(name));
+        out.writeShort(pool.utf8(descriptor));
+        out.writeShort(1);
+        out.writeShort(pool.utf8("Code"));
+        out.writeInt(12 + instructions.length);
+        out.writeShort(code.maxStack);
+        out.writeShort(code.maxLocals);
+        out.writeInt(instructions.length);
+        out.write(instructions);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+        return bytes.toByteArray();
+    }
+
+    private static final class Label {
+        private int position = -1;
+        private final List<int[]> references = new ArrayList<>(); // {instruction, operand}
+    }
+
+    // Bytecode of one method, tracking the stack depth and locals it needs
+    private final class Code {
+        private final boolean arena;
+        private byte[] bytes = new byte[256];
+        private int length;
+        private int stack;
+        private int maxStack;
+        private int maxLocals;
+        private final List<Label> labels = new ArrayList<>();
+
+        private Code(boolean arena, int parameterSlots) {
+            this.arena = arena;
+            this.maxLocals = parameterSlots;
+        }
+
+        private int nodeLoad() {
+            return arena ? ILOAD : ALOAD;
+        }
+
+        private int nodeStore() {
+            return arena ? ISTORE : ASTORE;
+        }
+
+        private int newLocal(int size) {
+            int local = maxLocals;
+            maxLocals += size;
+            if (maxLocals > 255) {
+                throw new RuntimeException("Too many locals in generated method");
+            }
+            return local;
+        }
+
+        private void u1(int value) {
+            if (length == bytes.length) {
+                byte[] grown = new byte[bytes.length * 2];
+                System.arraycopy(bytes, 0, grown, 0, length);
+                bytes = grown;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        private void adjust(int delta) {
+            stack += delta;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        private void op(int opcode, int delta) {
+            u1(opcode);
+            adjust(delta);
+        }
+
+        private void load(int opcode, int local) {
+            u1(opcode);
+            u1(local);
+            adjust(opcode == DLOAD ? 2 : 1);
+        }
+
+        private void store(int opcode, int local) {
+            u1(opcode);
+            u1(local);
+            adjust(opcode == DSTORE ? -2 : -1);
+        }
+
+        private void increment(int local) {
+            u1(IINC);
+            u1(local);
+            u1(1);
+        }
+
+        private void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value, 1);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(BIPUSH, 1);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(SIPUSH, 1);
+                u2(value);
+            } else {
+                throw new RuntimeException("Constant out of range in generated method: " + value);
+            }
+        }
+
+        private void pushDouble(double value) {
+            if (Double.doubleToRawLongBits(value) == 0L) {
+                op(DCONST_0, 2);
+            } else if (value == 1.0) {
+                op(DCONST_1, 2);
+            } else {
+                op(LDC2_W, 2);
+                u2(pool.doubleConstant(value));
+            }
+        }
+
+        private void type(int opcode, String className) {
+            u1(opcode);
+            u2(pool.classRef(className));
+        }
+
+        private void field(int opcode, String owner, String name, String descriptor) {
+            u1(opcode);
+            u2(pool.member(9, owner, name, descriptor));
+        }
+
+        private void invoke(int opcode, String owner, String name, String descriptor) {
+            int arguments = argumentSlots(descriptor);
+            char returnType = descriptor.charAt(descriptor.indexOf(')') + 1);
+            int result = returnType == 'V' ? 0 : returnType == 'D' || returnType == 'J' ? 2 : 1;
+            u1(opcode);
+            if (opcode == INVOKEINTERFACE) {
+                u2(pool.member(11, owner, name, descriptor));
+                u1(arguments + 1);
+                u1(0);
+            } else {
+                u2(pool.member(10, owner, name, descriptor));
+            }
+            adjust(result - arguments - (opcode == INVOKESTATIC ? 0 : 1));
+        }
+
+        private void branch(int opcode, Label label, int delta) {
+            label.references.add(new int[]{length, length + 1});
+            if (!labels.contains(label)) {
+                labels.add(label);
+            }
+            op(opcode, delta);
+            u2(0);
+        }
+
+        private void mark(Label label) {
+            label.position = length;
+        }
+
+        private byte[] finish() {
+            for (Label label : labels) {
+                for (int[] reference : label.references) {
+                    int offset = label.position - reference[0];
+                    if (label.position < 0 || offset != (short) offset) {
+                        throw new RuntimeException("Branch out of range in generated method");
+                    }
+                    bytes[reference[1]] = (byte) (offset >> 8);
+                    bytes[reference[1] + 1] = (byte) offset;
+                }
+            }
+            if (length > 65535) {
+                throw new RuntimeException("Generated method too large");
+            }
+            byte[] instructions = new byte[length];
+            System.arraycopy(bytes, 0, instructions, 0, length);
+            return instructions;
+        }
+    }
+
+    private static int argumentSlots(String descriptor) {
+        int slots = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            if (c == 'D' || c == 'J') {
+                slots += 2;
+                i++;
+            } else if (c == 'L') {
+                slots++;
+                i = descriptor.indexOf(';', i) + 1;
+            } else if (c == '[') {
+                while (descriptor.charAt(i) == '[') {
+                    i++;
+                }
+                if (descriptor.charAt(i) == 'L') {
+                    i = descriptor.indexOf(';', i);
+                }
+                slots++;
+                i++;
+            } else {
+                slots++;
+                i++;
+            }
+        }
+        return slots;
+    }
+
+    // Deduplicated constant pool, written after all methods have added their entries
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        private int utf8(String value) {
+            Integer index = entries.get("U" + value);
+            if (index != null) {
+                return index;
+            }
+            try {
+                out.writeByte(1);
+                out.writeUTF(value);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            entries.put("U" + value, count);
+            return count++;
+        }
+
+        private int classRef(String name) {
+            Integer index = entries.get("C" + name);
+            if (index != null) {
+                return index;
+            }
+            int nameIndex = utf8(name);
+            write(7, nameIndex, -1);
+            entries.put("C" + name, count);
+            return count++;
+        }
+
+        private int doubleConstant(double value) {
+            String key = "D" + Double.doubleToRawLongBits(value);
+            Integer index = entries.get(key);
+            if (index != null) {
+                return index;
+            }
+            try {
+                out.writeByte(6);
+                out.writeDouble(value);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            entries.put(key, count);
+            int doubleIndex = count;
+            count += 2; // doubles take two entries
+            return doubleIndex;
+        }
+
+        private int member(int tag, String owner, String name, String descriptor) {
+            String key = tag + owner + "." + name + descriptor;
+            Integer index = entries.get(key);
+            if (index != null) {
+                return index;
+            }
+            int ownerIndex = classRef(owner);
+            String nameAndTypeKey = "N" + name + descriptor;
+            Integer nameAndType = entries.get(nameAndTypeKey);
+            if (nameAndType == null) {
+                int nameIndex = utf8(name);
+                int descriptorIndex = utf8(descriptor);
+                write(12, nameIndex, descriptorIndex);
+                nameAndType = count++;
+                entries.put(nameAndTypeKey, nameAndType);
+            }
+            write(tag, ownerIndex, nameAndType);
+            entries.put(key, count);
+            return count++;
+        }
+
+        private void write(int tag, int first, int second) {
+            try {
+                out.writeByte(tag);
+                out.writeShort(first);
+                if (second >= 0) {
+                    out.writeShort(second);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private void writeTo(DataOutputStream target) throws IOException {
+            if (count > 65535) {
+                throw new RuntimeException("Constant pool too large");
+            }
+            target.writeShort(count);
+            target.write(bytes.toByteArray());
+        }
+    }
+}
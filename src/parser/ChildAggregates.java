@@ -0,0 +1,173 @@
+package parser;
+
+/**
+ * Incremental state of an Aggregate over one child attribute, kept by the parent in STRIDE
+ * doubles of a flat array. Min and max keep the extreme and how many children are tied at it,
+ * sum and avg keep the sum of the finite values and counts of the infinite ones. Whenever an
+ * update cannot be applied exactly, the state turns stale and is rebuilt from the children on
+ * the next read, so cached values always equal the uncached loop over the children.
+ */
+final class ChildAggregates {
+    static final int MIN = 0;
+    static final int MAX = 1;
+    static final int SUM = 2;
+    static final int AVG = 3;
+
+    static final int STRIDE = 4;
+
+    private static final int VALUE = 0; // extreme, or sum of the finite values
+    private static final int COUNT = 1; // children at the extreme, unused by sums, STALE when it must be rebuilt
+    private static final int POSITIVE_INFINITIES = 2;
+    private static final int NEGATIVE_INFINITIES = 3;
+    private static final double STALE = -1.0;
+
+    // Integers up to this size sum exactly in any order, for any realistic number of children
+    private static final double EXACT_LIMIT = 0x1p32;
+
+    private ChildAggregates() {
+    }
+
+    static int operation(String name) {
+        switch (name) {
+            case "min":
+                return MIN;
+            case "max":
+                return MAX;
+            case "sum":
+                return SUM;
+            case "avg":
+                return AVG;
+            default:
+                return -1;
+        }
+    }
+
+    // The state of a node without children
+    static void reset(int operation, double[] state, int offset) {
+        state[offset + VALUE] = operation == MIN ? Double.POSITIVE_INFINITY
+                : operation == MAX ? Double.NEGATIVE_INFINITY : 0.0;
+        state[offset + COUNT] = 0.0;
+        state[offset + POSITIVE_INFINITIES] = 0.0;
+        state[offset + NEGATIVE_INFINITIES] = 0.0;
+    }
+
+    // Forces a rebuild on the next read
+    static void invalidate(double[] state, int offset) {
+        state[offset + COUNT] = STALE;
+    }
+
+    static boolean isValid(double[] state, int offset) {
+        return state[offset + COUNT] != STALE;
+    }
+
+    static double value(int operation, double[] state, int offset, int numChildren) {
+        if (operation == MIN || operation == MAX) {
+            return state[offset + VALUE];
+        }
+        double sum = state[offset + VALUE];
+        if (state[offset + POSITIVE_INFINITIES] > 0) {
+            sum = state[offset + NEGATIVE_INFINITIES] > 0 ? Double.NaN : Double.POSITIVE_INFINITY;
+        } else if (state[offset + NEGATIVE_INFINITIES] > 0) {
+            sum = Double.NEGATIVE_INFINITY;
+        }
+        return operation == SUM ? sum : sum / numChildren;
+    }
+
+    // A child with this value was added
+    static void add(int operation, double[] state, int offset, double value) {
+        if (state[offset + COUNT] == STALE) {
+            return;
+        }
+        if (operation == MIN || operation == MAX) {
+            if (Double.isNaN(value)) {
+                state[offset + COUNT] = STALE;
+                return;
+            }
+            int order = compare(operation, value, state[offset + VALUE]);
+            if (order < 0) {
+                state[offset + VALUE] = value;
+                state[offset + COUNT] = 1.0;
+            } else if (order == 0) {
+                state[offset + COUNT]++;
+            }
+        } else {
+            addToSum(state, offset, value, 1.0);
+        }
+    }
+
+    // The value of one child changed
+    static void replace(int operation, double[] state, int offset, double previous, double value) {
+        if (state[offset + COUNT] == STALE) {
+            return;
+        }
+        if (operation == MIN || operation == MAX) {
+            if (Double.isNaN(value)) {
+                state[offset + COUNT] = STALE;
+                return;
+            }
+            boolean wasExtreme = compare(operation, previous, state[offset + VALUE]) == 0;
+            int order = compare(operation, value, state[offset + VALUE]);
+            if (order < 0) {
+                state[offset + VALUE] = value;
+                state[offset + COUNT] = 1.0;
+            } else if (order == 0) {
+                if (!wasExtreme) {
+                    state[offset + COUNT]++;
+                }
+            } else if (wasExtreme && --state[offset + COUNT] == 0.0) {
+                // The last child at the extreme moved away, only a rescan finds the next one
+                state[offset + COUNT] = STALE;
+            }
+        } else {
+            addToSum(state, offset, previous, -1.0);
+            addToSum(state, offset, value, 1.0);
+        }
+    }
+
+    private static void addToSum(double[] state, int offset, double value, double sign) {
+        if (state[offset + COUNT] == STALE) {
+            return;
+        }
+        if (value == Double.POSITIVE_INFINITY) {
+            state[offset + POSITIVE_INFINITIES] += sign;
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            state[offset + NEGATIVE_INFINITIES] += sign;
+        } else {
+            double sum = state[offset + VALUE] + sign * value;
+            if (isExact(value) && isExact(sum)) {
+                state[offset + VALUE] = sum;
+            } else {
+                state[offset + COUNT] = STALE;
+            }
+        }
+    }
+
+    private static boolean isExact(double value) {
+        return value == Math.rint(value) && Math.abs(value) <= EXACT_LIMIT;
+    }
+
+    // Orders by Double.compare, which agrees with Math.min and Math.max apart from NaN
+    private static int compare(int operation, double value, double extreme) {
+        return operation == MIN ? Double.compare(value, extreme) : Double.compare(extreme, value);
+    }
+
+    // The uncached loop over the children, which a rebuild runs alongside add
+    static double identity(int operation) {
+        return operation == MIN ? Double.POSITIVE_INFINITY : operation == MAX ? Double.NEGATIVE_INFINITY : 0.0;
+    }
+
+    static double combine(int operation, double result, double value) {
+        switch (operation) {
+            case MIN:
+                return Math.min(result, value);
+            case MAX:
+                return Math.max(result, value);
+            default:
+                return result + value;
+        }
+    }
+
+    static double finish(int operation, double result, int numChildren) {
+        return operation == AVG ? result / numChildren : result;
+    }
+}
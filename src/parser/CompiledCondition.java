@@ -0,0 +1,10 @@
+package parser;
+
+/**
+ * The boolean counterpart of CompiledExpression, for the condition of a Condition statement.
+ */
+public abstract class CompiledCondition {
+    public abstract boolean evaluate(Node<?> node);
+
+    public abstract boolean evaluate(TreeArena tree, int node);
+}
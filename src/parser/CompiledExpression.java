@@ -0,0 +1,13 @@
+package parser;
+
+/**
+ * A SADL expression turned by the ExpressionCompiler into a tree of pre-bound evaluators.
+ * Literals are parsed, operators resolved and identifiers bound to their attribute slot or
+ * global once at compile time, instead of being switched on by string on every evaluation.
+ * Compiled expressions hold no search state, so one instance is shared by all searches.
+ */
+public abstract class CompiledExpression {
+    public abstract double evaluate(Node<?> node);
+
+    public abstract double evaluate(TreeArena tree, int node);
+}
@@ -1,32 +1,65 @@
 package parser;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
 public class Compiler {
+    // Identifiers the ExpressionEvaluator handles itself, so they never become node attributes
+    private static final Set<String> KEYWORDS = Set.of(
+            "+", "-", "*", "/", "sqrt", "log", "orNode", "maxNode", "andNode", "minNode",
+            "true", "false", "unknown", "numChildren", "Aggregate", "inf", "depth", "Parent",
+            "ExternalFunction", "node"
+    );
 
     public static ExecutableSearchAlgorithm compile(ASTNode node) {
+        return compile(node, CompilerOptions.defaults());
+    }
+
+    public static ExecutableSearchAlgorithm compile(ASTNode node, CompilerOptions options) {
         if (!node.getValue().equals("SearchAlgorithm")) {
             throw new RuntimeException("Expected SearchAlgorithm node, found: " + node.getValue());
         }
+        if (options.isOptimize()) {
+            node = Optimizer.optimize(node);
+        }
 
         ExecutableSearchAlgorithm algorithm = new ExecutableSearchAlgorithm();
         algorithm.setName(node.getChildren().get(0).getValue());
 
+        // Globals first, so attribute slots are only interned for names that are not Defined
+        for (ASTNode child : node.getChildren()) {
+            if (child.getType() != ASTNode.NodeType.NAME && child.getValue().equals("Define")) {
+                algorithm.addGlobalVariable(child.getChildren().get(0).getValue(), Double.parseDouble(child.getChildren().get(1).getValue()));
+            }
+        }
+        Set<String> constants = new HashSet<>(algorithm.getGlobalVariables().keySet());
+        Optimizer.removeAssigned(node, constants);
+        resolveExternalArguments(node, algorithm, constants);
+        if (options.isPruneAttributes()) {
+            Set<String> live = new HashSet<>();
+            findLiveAttributes(node, algorithm, live);
+            algorithm.setLayout(new AttributeLayout(live));
+        }
+
         for (ASTNode child : node.getChildren()) {
             if (child.getType() != ASTNode.NodeType.NAME) {
                 switch (child.getValue()) {
                     case "Selection":
-                        algorithm.setSelection(compileSelection(child));
+                        algorithm.setSelection(compileSelection(child, algorithm, options));
                         break;
                     case "Evaluation":
-                        algorithm.setEvaluation(compileEvaluation(child));
+                        algorithm.setEvaluation(compileEvaluation(child, algorithm, options));
                         break;
                     case "Backpropagation":
-                        algorithm.setBackpropagation(compileBackpropagation(child));
+                        algorithm.setBackpropagation(compileBackpropagation(child, algorithm, options));
                         break;
                     case "FinalMoveSelection":
-                        algorithm.setFinalMoveSelection(compileFinalMoveSelection(child));
+                        algorithm.setFinalMoveSelection(compileFinalMoveSelection(child, algorithm, options));
                         break;
                     case "Define":
-                        algorithm.addGlobalVariable(child.getChildren().get(0).getValue(), Double.parseDouble(child.getChildren().get(1).getValue()));
                         break;
                     default:
                         throw new RuntimeException("Unexpected node: " + child.getValue());
@@ -34,86 +67,227 @@ public class Compiler {
             }
         }
 
+        if (options.isGenerateBytecode()) {
+            BytecodeGenerator.generate(algorithm);
+        }
+
         return algorithm;
     }
 
-    private static ExecutableSelection compileSelection(ASTNode node) {
+    private static ExecutableSelection compileSelection(ASTNode node, ExecutableSearchAlgorithm algorithm, CompilerOptions options) {
         ExecutableSelection selection = new ExecutableSelection();
         selection.setName(node.getChildren().get(0).getValue());
 
         for (ASTNode child : node.getChildren()) {
-            if (child.getType() != ASTNode.NodeType.NAME) {
-                selection.addStatement(compileStatement(child));
+            if (child.getType() != ASTNode.NodeType.NAME && !isDeadSet(child, algorithm)) {
+                selection.addStatement(compileStatement(child, algorithm, options));
             }
         }
 
         return selection;
     }
 
-    private static ExecutableEvaluation compileEvaluation(ASTNode node) {
+    private static ExecutableEvaluation compileEvaluation(ASTNode node, ExecutableSearchAlgorithm algorithm, CompilerOptions options) {
         ExecutableEvaluation evaluation = new ExecutableEvaluation();
 
         for (ASTNode child : node.getChildren()) {
-            evaluation.addStatement(compileStatement(child));
+            if (!isDeadSet(child, algorithm)) {
+                evaluation.addStatement(compileStatement(child, algorithm, options));
+            }
         }
 
         return evaluation;
     }
 
-    private static ExecutableBackpropagation compileBackpropagation(ASTNode node) {
+    private static ExecutableBackpropagation compileBackpropagation(ASTNode node, ExecutableSearchAlgorithm algorithm, CompilerOptions options) {
         ExecutableBackpropagation backpropagation = new ExecutableBackpropagation();
 
         for (ASTNode child : node.getChildren()) {
-            backpropagation.addStatement(compileStatement(child));
+            if (!isDeadSet(child, algorithm)) {
+                backpropagation.addStatement(compileStatement(child, algorithm, options));
+            }
         }
 
         return backpropagation;
     }
 
-    private static ExecutableFinalMoveSelection compileFinalMoveSelection(ASTNode node) {
+    private static ExecutableFinalMoveSelection compileFinalMoveSelection(ASTNode node, ExecutableSearchAlgorithm algorithm, CompilerOptions options) {
         ExecutableFinalMoveSelection finalMoveSelection = new ExecutableFinalMoveSelection();
 
         for (ASTNode child : node.getChildren()) {
-            if (child.getType() != ASTNode.NodeType.NAME) {
-                finalMoveSelection.addStatement(compileStatement(child));
+            if (child.getType() != ASTNode.NodeType.NAME && !isDeadSet(child, algorithm)) {
+                finalMoveSelection.addStatement(compileStatement(child, algorithm, options));
             }
         }
         return finalMoveSelection;
     }
 
-    private static ExecutableStatement compileStatement(ASTNode node) {
+    private static ExecutableStatement compileStatement(ASTNode node, ExecutableSearchAlgorithm algorithm, CompilerOptions options) {
         return switch (node.getValue()) {
-            case "Condition" -> compileCondition(node);
-            case "Set" -> compileSet(node);
-            case "SelectNode" -> compileSelectNode(node);
+            case "Condition" -> compileCondition(node, algorithm, options);
+            case "Set" -> compileSet(node, algorithm, options);
+            case "SelectNode" -> compileSelectNode(node, algorithm, options);
             default -> throw new RuntimeException("Unexpected node: " + node.getValue());
         };
     }
 
-    private static ExecutableCondition compileCondition(ASTNode node) {
+    private static ExecutableCondition compileCondition(ASTNode node, ExecutableSearchAlgorithm algorithm, CompilerOptions options) {
         ExecutableCondition condition = new ExecutableCondition();
         condition.setCondition(node.getChildren().get(0)); // Set the entire condition node
+        assignSlots(node.getChildren().get(0), algorithm, options);
+        if (options.isCompileExpressions()) {
+            condition.setCompiledCondition(ExpressionCompiler.compileCondition(node.getChildren().get(0)));
+        }
 
         for (ASTNode child : node.getChildren()) {
-            if (!child.equals(node.getChildren().get(0))) {
-                condition.addStatement(compileStatement(child));
+            if (!child.equals(node.getChildren().get(0)) && !isDeadSet(child, algorithm)) {
+                condition.addStatement(compileStatement(child, algorithm, options));
             }
         }
 
         return condition;
     }
 
-    private static ExecutableSet compileSet(ASTNode node) {
+    private static ExecutableSet compileSet(ASTNode node, ExecutableSearchAlgorithm algorithm, CompilerOptions options) {
         ExecutableSet set = new ExecutableSet();
-        set.setVariable(node.getChildren().get(0).getValue());
+        String variable = node.getChildren().get(0).getValue();
+        set.setVariable(variable);
+        if (!algorithm.getGlobalVariables().containsKey(variable)) {
+            set.setSlot(algorithm.getLayout().intern(variable));
+        } else {
+            set.setGlobal(algorithm.globalIndex(variable));
+        }
         set.setExpression(node.getChildren().get(1));
+        assignSlots(node.getChildren().get(1), algorithm, options);
+        if (options.isCompileExpressions()) {
+            set.setCompiledExpression(ExpressionCompiler.compile(node.getChildren().get(1)));
+        }
         return set;
     }
 
-    private static ExecutableSelectNode compileSelectNode(ASTNode node) {
+    private static ExecutableSelectNode compileSelectNode(ASTNode node, ExecutableSearchAlgorithm algorithm, CompilerOptions options) {
         ExecutableSelectNode selectNode = new ExecutableSelectNode();
         selectNode.setFunction(node.getChildren().get(0).getValue());
         selectNode.setExpression(node.getChildren().get(1));
+        assignSlots(node.getChildren().get(1), algorithm, options);
+        if (options.isCompileExpressions()) {
+            ASTNode score = selectNode.getScore();
+            if (selectNode.getGuard() != null) {
+                selectNode.setCompiledGuard(ExpressionCompiler.compileGuard(selectNode.getGuard()));
+            }
+            if (options.isMemoizeScores()) {
+                ExpressionCompiler.declareMemos(score, algorithm.getLayout());
+            }
+            List<CompiledExpression> invariants = new ArrayList<>();
+            selectNode.setCompiledExpression(ExpressionCompiler.compileScore(score, invariants));
+            selectNode.setInvariants(invariants.toArray(new CompiledExpression[0]));
+            // The kernel scores every child of the block, so it cannot skip the ones a guard rejects
+            if (options.isVectorizeSelection() && selectNode.getGuard() == null) {
+                selectNode.setKernel(SelectionKernel.compile(selectNode.getFunction(), score));
+            }
+        }
         return selectNode;
     }
+
+    // Interns every attribute an expression reads and stores its slot on the identifier leaf,
+    // resolves the globals to their frame index and declares the cached aggregates on their Aggregate nodes
+    private static void assignSlots(ASTNode expression, ExecutableSearchAlgorithm algorithm, CompilerOptions options) {
+        expression.setMemo(-1);
+        if (expression.getChildren().isEmpty()) {
+            expression.setSlot(isAttribute(expression, algorithm) ? algorithm.getLayout().intern(expression.getValue()) : -1);
+            expression.setGlobal(expression.getType() == ASTNode.NodeType.SYMBOL ? algorithm.globalIndex(expression.getValue()) : -1);
+            return;
+        }
+        switch (expression.getValue()) {
+            case "ExternalFunction":
+                // Reported here rather than in the middle of a search, also when the AST is interpreted
+                ExpressionCompiler.bindExternal(expression);
+                break;
+            case "Aggregate":
+                ASTNode parameter = expression.getChildren().get(1);
+                if (parameter.getChildren().isEmpty()) {
+                    assignSlots(parameter, algorithm, options);
+                }
+                expression.setSlot(options.isCacheAggregates() && parameter.getSlot() >= 0
+                        ? algorithm.getLayout().declareAggregate(expression.getChildren().get(0).getValue(), parameter.getSlot())
+                        : -1);
+                break;
+            default:
+                for (ASTNode child : expression.getChildren()) {
+                    assignSlots(child, algorithm, options);
+                }
+        }
+    }
+
+    // An ExternalFunction argument must be a number when bound, so a Define the program never Sets is replaced by its value
+    private static void resolveExternalArguments(ASTNode node, ExecutableSearchAlgorithm algorithm, Set<String> constants) {
+        List<ASTNode> children = node.getChildren();
+        if (node.getValue().equals("ExternalFunction") && children.size() > 2) {
+            ASTNode argument = children.get(2);
+            if (argument.getType() == ASTNode.NodeType.SYMBOL && constants.contains(argument.getValue())) {
+                ASTNode value = new ASTNode(Double.toString(algorithm.getGlobalVariables().get(argument.getValue())), ASTNode.NodeType.NUMBER);
+                children.set(2, value);
+                value.setParent(node);
+            }
+            return;
+        }
+        for (ASTNode child : children) {
+            resolveExternalArguments(child, algorithm, constants);
+        }
+    }
+
+    // Attributes that some expression reads, and the proof numbers if the program Sets them, since the search reads those
+    private static void findLiveAttributes(ASTNode node, ExecutableSearchAlgorithm algorithm, Set<String> live) {
+        List<ASTNode> children = node.getChildren();
+        if (children.isEmpty()) {
+            if (isAttribute(node, algorithm)) {
+                live.add(node.getValue());
+            }
+            return;
+        }
+        switch (node.getValue()) {
+            case "Define":
+            case "ExternalFunction":
+                return;
+            case "Set":
+                String variable = children.get(0).getValue();
+                if (variable.equals("proofNumber") || variable.equals("disproofNumber")) {
+                    live.add(variable);
+                }
+                findLiveAttributes(children.get(1), algorithm, live);
+                return;
+            case "SelectNode":
+            case "Aggregate":
+                // The first child names the function
+                findLiveAttributes(children.get(1), algorithm, live);
+                return;
+            default:
+                for (ASTNode child : children) {
+                    findLiveAttributes(child, algorithm, live);
+                }
+        }
+    }
+
+    // A Set of an attribute that nothing reads has no effect
+    private static boolean isDeadSet(ASTNode statement, ExecutableSearchAlgorithm algorithm) {
+        if (!statement.getValue().equals("Set") || statement.getChildren().isEmpty()) {
+            return false;
+        }
+        String variable = statement.getChildren().get(0).getValue();
+        return !algorithm.getGlobalVariables().containsKey(variable) && !algorithm.getLayout().isLive(variable);
+    }
+
+    private static boolean isAttribute(ASTNode leaf, ExecutableSearchAlgorithm algorithm) {
+        String name = leaf.getValue();
+        if (leaf.getType() != ASTNode.NodeType.SYMBOL || KEYWORDS.contains(name)
+                || algorithm.getGlobalVariables().containsKey(name)) {
+            return false;
+        }
+        try {
+            Double.parseDouble(name);
+            return false;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
 }
@@ -0,0 +1,101 @@
+package parser;
+
+/**
+ * Switches for the Compiler. The defaults optimize the AST, store only the live attributes, cache
+ * aggregates, compile expressions to closures, memoize per-child parts of selection scores and
+ * vectorize arena selection; interpreting the unoptimized AST is kept to measure against, and
+ * bytecode generation is opt-in.
+ */
+public class CompilerOptions {
+    // Fold constants, drop dead Conditions and share common subexpressions before compiling
+    private boolean optimize = true;
+    // Leave the built-in attributes the program never reads out of the node layout and drop Sets of unread attributes
+    private boolean pruneAttributes = true;
+    // Compile expressions and conditions to closure trees, otherwise the ExpressionEvaluator interprets the AST
+    private boolean compileExpressions = true;
+    // Keep the declared aggregates over child attributes up to date on every parent instead of looping over the children
+    private boolean cacheAggregates = true;
+    // Cache the expensive parts of SelectNode scores that only read the child's attributes on the child until those change
+    private boolean memoizeScores = true;
+    // Evaluate eligible SelectNode scores over the whole child block of an arena node, one operator at a time
+    private boolean vectorizeSelection = true;
+    // Generate a hidden class per algorithm for its phases, keeping the closures if that fails
+    private boolean generateBytecode = false;
+
+    public static CompilerOptions defaults() {
+        return new CompilerOptions();
+    }
+
+    public static CompilerOptions interpreted() {
+        CompilerOptions options = new CompilerOptions();
+        options.setOptimize(false);
+        options.setPruneAttributes(false);
+        options.setCompileExpressions(false);
+        options.setCacheAggregates(false);
+        options.setMemoizeScores(false);
+        options.setVectorizeSelection(false);
+        return options;
+    }
+
+    public static CompilerOptions generated() {
+        CompilerOptions options = new CompilerOptions();
+        options.setGenerateBytecode(true);
+        return options;
+    }
+
+    public void setOptimize(boolean optimize) {
+        this.optimize = optimize;
+    }
+
+    public boolean isOptimize() {
+        return optimize;
+    }
+
+    public void setPruneAttributes(boolean pruneAttributes) {
+        this.pruneAttributes = pruneAttributes;
+    }
+
+    public boolean isPruneAttributes() {
+        return pruneAttributes;
+    }
+
+    public void setCompileExpressions(boolean compileExpressions) {
+        this.compileExpressions = compileExpressions;
+    }
+
+    public boolean isCompileExpressions() {
+        return compileExpressions;
+    }
+
+    public void setCacheAggregates(boolean cacheAggregates) {
+        this.cacheAggregates = cacheAggregates;
+    }
+
+    public boolean isCacheAggregates() {
+        return cacheAggregates;
+    }
+
+    public void setMemoizeScores(boolean memoizeScores) {
+        this.memoizeScores = memoizeScores;
+    }
+
+    public boolean isMemoizeScores() {
+        return memoizeScores;
+    }
+
+    public void setVectorizeSelection(boolean vectorizeSelection) {
+        this.vectorizeSelection = vectorizeSelection;
+    }
+
+    public boolean isVectorizeSelection() {
+        return vectorizeSelection;
+    }
+
+    public void setGenerateBytecode(boolean generateBytecode) {
+        this.generateBytecode = generateBytecode;
+    }
+
+    public boolean isGenerateBytecode() {
+        return generateBytecode;
+    }
+}
@@ -1,11 +1,17 @@
 package parser;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 public class ExecutableBackpropagation implements ExecutableStatement {
     private String name;
-    private final List<ExecutableStatement> statements;
+    private List<ExecutableStatement> statements;
 
     public ExecutableBackpropagation() {
         this.statements = new ArrayList<>();
@@ -19,27 +25,101 @@ public class ExecutableBackpropagation implements ExecutableStatement {
         statements.add(statement);
     }
 
+    public List<ExecutableStatement> getStatements() {
+        return statements;
+    }
+
+    public void setStatements(List<ExecutableStatement> statements) {
+        this.statements = statements;
+    }
+
     @Override
     public <T extends Node<T>> T execute(T node) {
+        for (T ancestor = node; ancestor != null; ancestor = ancestor.getParent()) {
+            if (ancestor.hasExtraParents()) {
+                return executeOnAncestors(node);
+            }
+        }
+
         T currentNode = node;
         T prevNode = node;
 
         while (currentNode != null) {
-            currentNode.setValue("visitCount", currentNode.getValue("visitCount") + 1);
+            currentNode = update(currentNode);
+            prevNode = currentNode;
+            currentNode = currentNode.getParent();
+        }
 
-            for (ExecutableStatement statement : statements) {
-                currentNode = statement.execute(currentNode);
+        return prevNode;
+    }
+
+    // Transpositions give a node several parents, so every ancestor in the DAG is updated exactly once,
+    // deepest first, so that each one aggregates children that are already up to date
+    private <T extends Node<T>> T executeOnAncestors(T node) {
+        List<T> ancestors = new ArrayList<>();
+        Set<T> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<T> stack = new ArrayDeque<>();
+        stack.push(node);
+        seen.add(node);
+        while (!stack.isEmpty()) {
+            T current = stack.pop();
+            ancestors.add(current);
+            T parent = current.getParent();
+            if (parent != null && seen.add(parent)) {
+                stack.push(parent);
             }
+            for (T extraParent : current.getExtraParents()) {
+                if (seen.add(extraParent)) {
+                    stack.push(extraParent);
+                }
+            }
+        }
+        ancestors.sort(Comparator.comparingInt((T ancestor) -> ancestor.getDepth()).reversed());
 
-            if (currentNode.hasValue("proofNumber") && currentNode.getDepth() > 1) {
-                if (currentNode.getValue("proofNumber") == 0 || currentNode.getValue("disproofNumber") == 0) {
-                    currentNode.clearChildren();
+        T root = node;
+        for (T ancestor : ancestors) {
+            root = update(ancestor);
+        }
+        return root;
+    }
+
+    private <T extends Node<T>> T update(T node) {
+        T currentNode = node;
+        currentNode.addValue(AttributeLayout.VISIT_COUNT, 1);
+
+        for (ExecutableStatement statement : statements) {
+            currentNode = statement.execute(currentNode);
+        }
 
+        if (currentNode.getDepth() > 1) {
+            if (currentNode.getProofNumber() == 0 || currentNode.getDisproofNumber() == 0) {
+                currentNode.clearChildren();
+
+            }
+        }
+        return currentNode;
+    }
+
+    @Override
+    public int execute(TreeArena tree, int node) {
+        int currentNode = node;
+        int prevNode = node;
+
+        while (currentNode >= 0) {
+            tree.setValue(currentNode, AttributeLayout.VISIT_COUNT, tree.getValue(currentNode, AttributeLayout.VISIT_COUNT) + 1);
+
+            for (ExecutableStatement statement : statements) {
+                currentNode = statement.execute(tree, currentNode);
+            }
+
+            if (tree.getDepth(currentNode) > 1) {
+                if (tree.getProofNumber(currentNode) == 0 || tree.getDisproofNumber(currentNode) == 0) {
+                    tree.clearChildren(currentNode);
                 }
             }
 
             prevNode = currentNode;
-            currentNode = currentNode.getParent();
+            currentNode = tree.getParent(currentNode);
         }
 
         return prevNode;
@@ -5,12 +5,25 @@ import java.util.List;
 
 public class ExecutableCondition implements ExecutableStatement {
     private ASTNode condition;
+    private CompiledCondition compiledCondition; // null when interpreted
     private List<ExecutableStatement> body;
 
     public void setCondition(ASTNode condition) {
         this.condition = condition;
     }
 
+    public ASTNode getCondition() {
+        return condition;
+    }
+
+    public List<ExecutableStatement> getBody() {
+        return body;
+    }
+
+    public void setCompiledCondition(CompiledCondition compiledCondition) {
+        this.compiledCondition = compiledCondition;
+    }
+
     public void addStatement(ExecutableStatement statement) {
         if (body == null) {
             body = new ArrayList<>();
@@ -19,9 +32,19 @@ public class ExecutableCondition implements ExecutableStatement {
     }
 
     public <T extends Node<T>> boolean evaluate(T node) {
+        if (compiledCondition != null) {
+            return compiledCondition.evaluate(node);
+        }
         return ExpressionEvaluator.evaluateCondition(condition, node);
     }
 
+    public boolean evaluate(TreeArena tree, int node) {
+        if (compiledCondition != null) {
+            return compiledCondition.evaluate(tree, node);
+        }
+        return ExpressionEvaluator.evaluateCondition(condition, tree, node);
+    }
+
     @Override
     public <T extends Node<T>> T execute(T node) {
         if (evaluate(node)) {
@@ -32,6 +55,16 @@ public class ExecutableCondition implements ExecutableStatement {
         return node;
     }
 
+    @Override
+    public int execute(TreeArena tree, int node) {
+        if (evaluate(tree, node)) {
+            for (ExecutableStatement statement : body) {
+                node = statement.execute(tree, node);
+            }
+        }
+        return node;
+    }
+
     @Override
     public String toString() {
         return "ExecutableCondition{condition='" + condition + "', body=" + body + '}';
@@ -5,7 +5,7 @@ import java.util.List;
 
 public class ExecutableEvaluation implements ExecutableStatement {
     private String name;
-    private final List<ExecutableStatement> statements;
+    private List<ExecutableStatement> statements;
 
     public ExecutableEvaluation() {
         this.statements = new ArrayList<>();
@@ -19,6 +19,14 @@ public class ExecutableEvaluation implements ExecutableStatement {
         statements.add(statement);
     }
 
+    public List<ExecutableStatement> getStatements() {
+        return statements;
+    }
+
+    public void setStatements(List<ExecutableStatement> statements) {
+        this.statements = statements;
+    }
+
     @Override
     public <T extends Node<T>> T execute(T node) {
         for (ExecutableStatement statement : statements) {
@@ -27,6 +35,14 @@ public class ExecutableEvaluation implements ExecutableStatement {
         return node;
     }
 
+    @Override
+    public int execute(TreeArena tree, int node) {
+        for (ExecutableStatement statement : statements) {
+            node = statement.execute(tree, node);
+        }
+        return node;
+    }
+
     @Override
     public String toString() {
         return "ExecutableEvaluation{name='" + name + "', statements=" + statements + '}';
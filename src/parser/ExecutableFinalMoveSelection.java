@@ -26,6 +26,14 @@ public class ExecutableFinalMoveSelection implements ExecutableStatement {
         return node;
     }
 
+    @Override
+    public int execute(TreeArena tree, int node) {
+        for (ExecutableStatement statement : statements) {
+            node = statement.execute(tree, node);
+        }
+        return node;
+    }
+
     @Override
     public String toString() {
         return "ExecutableFinalMoveSelection{name='" + name + "', statements=" + statements + '}';
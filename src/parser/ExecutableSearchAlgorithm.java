@@ -1,5 +1,6 @@
 package parser;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -10,6 +11,9 @@ public class ExecutableSearchAlgorithm {
     private ExecutableBackpropagation backpropagation;
     private ExecutableFinalMoveSelection finalMoveSelection;
     private Map<String, Double> globalVariables = new HashMap<>();
+    private final Map<String, Integer> globalIndices = new HashMap<>();
+    private double[] initialGlobals = new double[0]; // Defined values, by index in the VariableFrame
+    private AttributeLayout layout = new AttributeLayout();
 
     public void setName(String name) {
         this.name = name;
@@ -53,12 +57,38 @@ public class ExecutableSearchAlgorithm {
 
     public void addGlobalVariable(String name, Double value) {
         globalVariables.put(name, value);
+        Integer index = globalIndices.get(name);
+        if (index == null) {
+            index = initialGlobals.length;
+            globalIndices.put(name, index);
+            initialGlobals = Arrays.copyOf(initialGlobals, index + 1);
+        }
+        initialGlobals[index] = value;
+    }
+
+    // Index of a global in the VariableFrame, -1 if the name is not Defined
+    public int globalIndex(String name) {
+        Integer index = globalIndices.get(name);
+        return index != null ? index : -1;
+    }
+
+    public double[] getInitialGlobals() {
+        return initialGlobals;
     }
 
     public Map<String, Double> getGlobalVariables() {
         return globalVariables;
     }
 
+    // Only before anything is compiled against the layout
+    public void setLayout(AttributeLayout layout) {
+        this.layout = layout;
+    }
+
+    public AttributeLayout getLayout() {
+        return layout;
+    }
+
 
     @Override
     public String toString() {
@@ -1,19 +1,72 @@
 package parser;
 
 import java.util.List;
-import java.util.Objects;
 import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * Selects the child with the highest (argmax) or lowest (argmin) score. A guarded score, i.e. a
+ * Condition around it, only considers the children that pass the condition. Nothing is changed
+ * or allocated while selecting, so one SelectNode can be used by several threads at once.
+ */
 public class ExecutableSelectNode implements ExecutableStatement {
     private String function;
+    private boolean argmax;
+    private boolean argmin;
     private ASTNode expression;
+    private ASTNode guard; // condition a child must pass, null when every child is scored
+    private ASTNode score;
+    private CompiledCondition compiledGuard; // null when interpreted or unguarded
+    private CompiledExpression compiledExpression; // the score, null when interpreted
+    private CompiledExpression[] invariants = new CompiledExpression[0]; // evaluated once per select call
+    private SelectionKernel kernel; // null when the score cannot be evaluated over the child block at once
 
     public void setFunction(String function) {
         this.function = function;
+        this.argmax = function.equals("argmax");
+        this.argmin = function.equals("argmin");
     }
 
     public void setExpression(ASTNode expression) {
         this.expression = expression;
+        boolean guarded = expression.getValue().equals("Condition");
+        this.guard = guarded ? expression.getChildren().get(0) : null;
+        this.score = guarded ? expression.getChildren().get(1) : expression;
+    }
+
+    public String getFunction() {
+        return function;
+    }
+
+    public ASTNode getExpression() {
+        return expression;
+    }
+
+    public ASTNode getGuard() {
+        return guard;
+    }
+
+    public ASTNode getScore() {
+        return score;
+    }
+
+    public void setCompiledGuard(CompiledCondition compiledGuard) {
+        this.compiledGuard = compiledGuard;
+    }
+
+    public void setCompiledExpression(CompiledExpression compiledExpression) {
+        this.compiledExpression = compiledExpression;
+    }
+
+    public void setInvariants(CompiledExpression[] invariants) {
+        this.invariants = invariants;
+    }
+
+    void setKernel(SelectionKernel kernel) {
+        this.kernel = kernel;
+    }
+
+    boolean hasKernel() {
+        return kernel != null;
     }
 
     public <T extends Node<T>> T select(T node) {
@@ -21,25 +74,63 @@ public class ExecutableSelectNode implements ExecutableStatement {
         if (children == null || children.isEmpty()) {
             return node;
         }
+        if (invariants.length > 0) {
+            ExpressionCompiler.hoist(invariants, node);
+        }
 
         T bestChild = null;
-        double bestValue = function.equals("argmax") ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        double bestValue = argmax ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
         int numBestFound = 0;
 
         for (T child : children) {
-            if (Objects.equals(expression.getValue(), "Condition")) {
-                ExecutableCondition condition = new ExecutableCondition();
-                condition.setCondition(expression.getChildren().get(0));
-                if (!condition.evaluate(child)) {
-                    continue;
-                } else {
-                    expression = expression.getChildren().get(1);
+            if (guard != null && !(compiledGuard != null ? compiledGuard.evaluate(child)
+                    : ExpressionEvaluator.evaluateGuard(guard, child))) {
+                continue;
+            }
+
+            double value = compiledExpression != null ? compiledExpression.evaluate(child)
+                    : ExpressionEvaluator.evaluateScore(score, child);
+            if ((argmax && value > bestValue) || (argmin && value < bestValue)) {
+                bestValue = value;
+                bestChild = child;
+                numBestFound = 1;
+            } else if (value == bestValue) {
+                // Random tie-breaking
+                if (ThreadLocalRandom.current().nextInt() % ++numBestFound == 0) {
+                    bestChild = child;
                 }
             }
+        }
+
+        return bestChild;
+    }
+
+    public int select(TreeArena tree, int node) {
+        int numChildren = tree.getChildCount(node);
+        if (numChildren == 0) {
+            return node;
+        }
+
+        int firstChild = tree.getFirstChild(node);
+        if (kernel != null) {
+            return kernel.select(tree, firstChild, numChildren);
+        }
+        if (invariants.length > 0) {
+            ExpressionCompiler.hoist(invariants, tree, node);
+        }
+        int bestChild = -1;
+        double bestValue = argmax ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        int numBestFound = 0;
+
+        for (int child = firstChild; child < firstChild + numChildren; child++) {
+            if (guard != null && !(compiledGuard != null ? compiledGuard.evaluate(tree, child)
+                    : ExpressionEvaluator.evaluateCondition(guard, tree, child))) {
+                continue;
+            }
 
-            double value = ExpressionEvaluator.evaluateExpression(expression, child);
-            if ((function.equals("argmax") && value > bestValue) ||
-                    (function.equals("argmin") && value < bestValue)) {
+            double value = compiledExpression != null ? compiledExpression.evaluate(tree, child)
+                    : ExpressionEvaluator.evaluateExpression(score, tree, child);
+            if ((argmax && value > bestValue) || (argmin && value < bestValue)) {
                 bestValue = value;
                 bestChild = child;
                 numBestFound = 1;
@@ -59,6 +150,11 @@ public class ExecutableSelectNode implements ExecutableStatement {
         return select(node);
     }
 
+    @Override
+    public int execute(TreeArena tree, int node) {
+        return select(tree, node);
+    }
+
     @Override
     public String toString() {
         return "ExecutableSelectNode{function='" + function + "', expression=" + expression + '}';
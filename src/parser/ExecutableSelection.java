@@ -18,6 +18,14 @@ public class ExecutableSelection implements ExecutableStatement {
         statements.add(statement);
     }
 
+    public List<ExecutableStatement> getStatements() {
+        return statements;
+    }
+
+    public void setStatements(List<ExecutableStatement> statements) {
+        this.statements = statements;
+    }
+
     @Override
     public <T extends Node<T>> T execute(T node) {
         T prevNode = node;
@@ -28,6 +36,16 @@ public class ExecutableSelection implements ExecutableStatement {
         return node;
     }
 
+    @Override
+    public int execute(TreeArena tree, int node) {
+        int prevNode = node;
+        for (ExecutableStatement statement : statements) {
+            node = statement.execute(tree, node);
+            if (node != prevNode) {break;} //can only select one
+        }
+        return node;
+    }
+
     @Override
     public String toString() {
         return "ExecutableSelection{name='" + name + "', statements=" + statements + '}';
@@ -1,33 +1,94 @@
 package parser;
 
-import java.util.Map;
-
-import utils.GlobalVariableRegistry;
-
 public class ExecutableSet implements ExecutableStatement {
     private String variable;
     private ASTNode expression;
+    private CompiledExpression compiledExpression; // null when interpreted
+    private int slot = -1; // attribute slot, -1 when the variable is a global
+    private int global = -1; // index in the search's VariableFrame, -1 when the variable is an attribute
 
     public void setVariable(String variable) {
         this.variable = variable;
     }
 
+    public void setSlot(int slot) {
+        this.slot = slot;
+    }
+
+    public void setGlobal(int global) {
+        this.global = global;
+    }
+
     public void setExpression(ASTNode expression) {
         this.expression = expression;
     }
 
+    public String getVariable() {
+        return variable;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public int getGlobal() {
+        return global;
+    }
+
+    public ASTNode getExpression() {
+        return expression;
+    }
+
+    public void setCompiledExpression(CompiledExpression compiledExpression) {
+        this.compiledExpression = compiledExpression;
+    }
+
     @Override
     public <T extends Node<T>> T execute(T node) {
-        double value = ExpressionEvaluator.evaluateExpression(expression, node);
-
-        Map<String, Double> variables = GlobalVariableRegistry.getInstanceVariables(node.getSearchId());
+        if (slot >= 0 && node.getFrame().isConcurrent()) {
+            return executeAtomically(node);
+        }
+        double value = compiledExpression != null ? compiledExpression.evaluate(node)
+                : ExpressionEvaluator.evaluateExpression(expression, node);
 
-        if (variables != null && variables.containsKey(variable)) {
-            variables.put(variable, value);
+        if (slot >= 0) {
+            node.setValue(slot, value);
+        } else if (global >= 0) {
+            node.getFrame().set(global, value);
         } else {
             node.setValue(variable, value);
         }
 
+        return node;
+    }
+
+    // In a concurrent search every Set is an atomic update of its own attribute: the expression is
+    // evaluated again until no other thread changed the attribute in between. Other attributes it
+    // reads may still change meanwhile.
+    private <T extends Node<T>> T executeAtomically(T node) {
+        double previous;
+        double value;
+        do {
+            previous = node.getValue(slot);
+            value = compiledExpression != null ? compiledExpression.evaluate(node)
+                    : ExpressionEvaluator.evaluateExpression(expression, node);
+        } while (!node.compareAndSetValue(slot, previous, value));
+        return node;
+    }
+
+    @Override
+    public int execute(TreeArena tree, int node) {
+        double value = compiledExpression != null ? compiledExpression.evaluate(tree, node)
+                : ExpressionEvaluator.evaluateExpression(expression, tree, node);
+
+        if (slot >= 0) {
+            tree.setValue(node, slot, value);
+        } else if (global >= 0) {
+            tree.getFrame().set(global, value);
+        } else {
+            // Only compiled attributes are stored in the arena
+            throw new RuntimeException("Unexpected variable: " + variable);
+        }
 
         return node;
     }
@@ -2,4 +2,6 @@ package parser;
 
 public interface ExecutableStatement {
     <T extends Node<T>> T execute(T node);
+
+    int execute(TreeArena tree, int node);
 }
\ No newline at end of file
@@ -0,0 +1,1085 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import utils.EvalFunction;
+import utils.FunctionRegistry;
+
+/**
+ * Turns expression and condition ASTs into CompiledExpression and CompiledCondition trees.
+ * Every evaluator behaves exactly like the matching branch of the ExpressionEvaluator,
+ * including its errors, which are raised when the expression is evaluated and not when it
+ * is compiled, so evolved programs with unreachable malformed branches still compile.
+ * Only unknown external functions are reported at compile time, since calls bind them.
+ * Slots must already be assigned to the identifier leaves.
+ */
+public class ExpressionCompiler {
+    // Values of shared subexpressions, stored by their first evaluation and read by the others,
+    // followed by the child invariants of the SelectNode being evaluated
+    private static final int SCRATCH_SIZE = 64;
+    private static final int HOISTED_SIZE = 64;
+    private static final ThreadLocal<double[]> SCRATCH = ThreadLocal.withInitial(() -> new double[SCRATCH_SIZE + HOISTED_SIZE]);
+    // Rough evaluation cost from which caching a pure subexpression beats checking the cache, in additions
+    private static final int MIN_MEMO_COST = 4;
+
+    private final Map<ASTNode, Integer> shared;
+    private final Map<ASTNode, Integer> hoisted = new IdentityHashMap<>();
+    private final Set<ASTNode> stored = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final boolean selection; // attributes are read with their virtual loss, see Node.selectionValue
+
+    private ExpressionCompiler(ASTNode root, boolean selection) {
+        this.shared = sharedSubexpressions(root);
+        this.selection = selection;
+    }
+
+    public static CompiledExpression compile(ASTNode expression) {
+        return new ExpressionCompiler(expression, false).expression(expression);
+    }
+
+    public static CompiledCondition compileCondition(ASTNode condition) {
+        return new ExpressionCompiler(condition, false).condition(condition);
+    }
+
+    // A part of a SelectNode score, which reads attributes with their virtual loss
+    static CompiledExpression compileSelection(ASTNode expression) {
+        return new ExpressionCompiler(expression, true).expression(expression);
+    }
+
+    // The guard of a SelectNode, which reads attributes with their virtual loss like the score
+    public static CompiledCondition compileGuard(ASTNode guard) {
+        return new ExpressionCompiler(guard, true).condition(guard);
+    }
+
+    /**
+     * Compiles a SelectNode score, which is evaluated on every child, and adds its child
+     * invariants to the given list. The score reads their values, so select calls must
+     * hoist the invariants on the selecting node before evaluating the score on any child.
+     */
+    public static CompiledExpression compileScore(ASTNode score, List<CompiledExpression> invariants) {
+        ExpressionCompiler compiler = new ExpressionCompiler(score, true);
+        List<ASTNode> childInvariants = childInvariants(score);
+        for (int i = 0; i < childInvariants.size(); i++) {
+            invariants.add(compileSelection(onParent(childInvariants.get(i))));
+            compiler.hoisted.put(childInvariants.get(i), SCRATCH_SIZE + i);
+        }
+        return compiler.expression(score);
+    }
+
+    static void hoist(CompiledExpression[] invariants, Node<?> node) {
+        double[] scratch = SCRATCH.get();
+        for (int i = 0; i < invariants.length; i++) {
+            scratch[SCRATCH_SIZE + i] = invariants[i].evaluate(node);
+        }
+    }
+
+    static void hoist(CompiledExpression[] invariants, TreeArena tree, int node) {
+        double[] scratch = SCRATCH.get();
+        for (int i = 0; i < invariants.length; i++) {
+            scratch[SCRATCH_SIZE + i] = invariants[i].evaluate(tree, node);
+        }
+    }
+
+    /**
+     * Rewrites a child invariant into the expression with the same value on the selecting node,
+     * i.e. with one Parent less and the depth one more. Evaluating the invariant on one of the
+     * children instead would resolve Parent through that child's own parent, which is another
+     * node when transpositions share the child. Shared subexpressions stay shared in the copy.
+     */
+    static ASTNode onParent(ASTNode invariant) {
+        return onParent(invariant, new IdentityHashMap<>());
+    }
+
+    private static ASTNode onParent(ASTNode expression, Map<ASTNode, ASTNode> copies) {
+        ASTNode copy = copies.get(expression);
+        if (copy != null) {
+            return copy;
+        }
+        switch (expression.getValue()) {
+            case "Parent":
+                return expression.getChildren().get(0);
+            case "depth":
+                copy = new ASTNode("+", ASTNode.NodeType.SYMBOL);
+                copy.addChild(new ASTNode("depth", ASTNode.NodeType.SYMBOL));
+                copy.addChild(new ASTNode("1", ASTNode.NodeType.NUMBER));
+                break;
+            default:
+                copy = new ASTNode(expression.getValue(), expression.getType());
+                copy.setSlot(expression.getSlot());
+                copy.setGlobal(expression.getGlobal());
+                copy.setMemo(expression.getMemo());
+                for (ASTNode child : expression.getChildren()) {
+                    copy.getChildren().add(onParent(child, copies));
+                }
+        }
+        copies.put(expression, copy);
+        return copy;
+    }
+
+    /**
+     * Lists the largest subexpressions of a SelectNode score that have the same value on every
+     * child, because they only read constants, the depth, or the parent and its ancestors, in the
+     * order they are evaluated. Leaves are left out, since reading them is as cheap as a hoisted value.
+     */
+    public static List<ASTNode> childInvariants(ASTNode score) {
+        List<ASTNode> invariants = new ArrayList<>();
+        findInvariants(score, invariants);
+        return invariants;
+    }
+
+    private static void findInvariants(ASTNode node, List<ASTNode> invariants) {
+        List<ASTNode> children = node.getChildren();
+        if (children.isEmpty()) {
+            return;
+        }
+        if (isChildInvariant(node, 0)) {
+            if (invariants.size() < HOISTED_SIZE && invariants.stream().noneMatch(invariant -> invariant == node)) {
+                invariants.add(node);
+            }
+            return;
+        }
+        if (node.getValue().equals("/")) {
+            findInvariants(children.get(1), invariants);
+            findInvariants(children.get(0), invariants);
+            return;
+        }
+        for (ASTNode child : children) {
+            findInvariants(child, invariants);
+        }
+    }
+
+    // Whether an expression evaluated on a child, or on its ancestor this many levels up, is the same for all siblings
+    static boolean isChildInvariant(ASTNode expression, int level) {
+        List<ASTNode> children = expression.getChildren();
+        switch (expression.getValue()) {
+            case "+":
+            case "-":
+            case "*":
+            case "/":
+            case "sqrt":
+            case "log":
+                return children.stream().allMatch(child -> isChildInvariant(child, level));
+            case "Parent":
+                return isChildInvariant(children.get(0), level + 1);
+            case "ExternalFunction":
+                return false;
+            case "numChildren":
+            case "Aggregate":
+                return level > 0;
+            case "depth":
+            case "orNode":
+            case "maxNode":
+            case "false":
+            case "andNode":
+            case "minNode":
+            case "true":
+            case "unknown":
+            case "inf":
+                return true;
+            default:
+                if (!children.isEmpty()) {
+                    return false;
+                }
+                if (level > 0) {
+                    return true;
+                }
+                if (expression.getSlot() >= 0) {
+                    return false;
+                }
+                if (expression.getGlobal() >= 0) {
+                    // Selection does not Set, so a global keeps its value during a select call
+                    return true;
+                }
+                try {
+                    Double.parseDouble(expression.getValue());
+                    return true;
+                } catch (NumberFormatException e) {
+                    // Possibly a string-keyed value of the child
+                    return false;
+                }
+        }
+    }
+
+    /**
+     * Declares the largest subexpressions of a SelectNode score that only read attributes of the
+     * child itself and constants, and are expensive enough to cache, as memoized expressions of
+     * the layout. Their value on a child only changes when one of the attributes they read does,
+     * so each child keeps it until then, instead of every select call evaluating it again.
+     * Subexpressions containing a shared one are left out, since the cache would skip storing it.
+     */
+    public static void declareMemos(ASTNode score, AttributeLayout layout) {
+        findMemos(score, layout, sharedSubexpressions(score));
+    }
+
+    private static void findMemos(ASTNode node, AttributeLayout layout, Map<ASTNode, Integer> shared) {
+        switch (node.getValue()) {
+            case "+":
+            case "-":
+            case "*":
+            case "/":
+            case "sqrt":
+            case "log":
+                break;
+            default:
+                return;
+        }
+        Set<Integer> reads = new TreeSet<>();
+        if (memoCost(node, reads) >= MIN_MEMO_COST && !reads.isEmpty()
+                && node.getChildren().stream().noneMatch(child -> containsShared(child, shared))) {
+            node.setMemo(layout.declareMemo(reads.stream().mapToInt(Integer::intValue).toArray()));
+            return;
+        }
+        for (ASTNode child : node.getChildren()) {
+            findMemos(child, layout, shared);
+        }
+    }
+
+    // Cost of a pure expression of the node's own attributes, adding the slots it reads, or -1 if it reads anything else
+    private static int memoCost(ASTNode expression, Set<Integer> reads) {
+        List<ASTNode> children = expression.getChildren();
+        int cost;
+        switch (expression.getValue()) {
+            case "+":
+            case "-":
+            case "*":
+                cost = 1;
+                break;
+            case "/":
+                cost = 2;
+                break;
+            case "sqrt":
+                cost = 4;
+                break;
+            case "log":
+                cost = 8;
+                break;
+            case "orNode":
+            case "maxNode":
+            case "false":
+            case "andNode":
+            case "minNode":
+            case "true":
+            case "unknown":
+            case "inf":
+                return 0;
+            default:
+                if (!children.isEmpty() || expression.getGlobal() >= 0) {
+                    return -1;
+                }
+                if (expression.getSlot() >= 0) {
+                    reads.add(expression.getSlot());
+                    return 0;
+                }
+                try {
+                    Double.parseDouble(expression.getValue());
+                    return 0;
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+        }
+        for (ASTNode child : children) {
+            int childCost = memoCost(child, reads);
+            if (childCost < 0) {
+                return -1;
+            }
+            cost += childCost;
+        }
+        return cost;
+    }
+
+    private static boolean containsShared(ASTNode node, Map<ASTNode, Integer> shared) {
+        return shared.containsKey(node) || node.getChildren().stream().anyMatch(child -> containsShared(child, shared));
+    }
+
+    /**
+     * Numbers the subexpressions that the Optimizer made the same ASTNode in several places
+     * of one expression, up to the scratch size; the others are evaluated at every occurrence.
+     */
+    public static Map<ASTNode, Integer> sharedSubexpressions(ASTNode root) {
+        Map<ASTNode, Integer> shared = new IdentityHashMap<>();
+        findShared(root, Collections.newSetFromMap(new IdentityHashMap<>()), shared);
+        return shared;
+    }
+
+    private static void findShared(ASTNode node, Set<ASTNode> seen, Map<ASTNode, Integer> shared) {
+        for (ASTNode child : node.getChildren()) {
+            if (child.getChildren().isEmpty()) {
+                continue;
+            }
+            if (!seen.add(child)) {
+                if (!shared.containsKey(child) && shared.size() < SCRATCH_SIZE) {
+                    shared.put(child, shared.size());
+                }
+                continue;
+            }
+            findShared(child, seen, shared);
+        }
+    }
+
+    // Children are compiled in the order they are evaluated, so a shared value is stored before it is read
+    private CompiledExpression expression(ASTNode expression) {
+        Integer hoistedIndex = hoisted.get(expression);
+        if (hoistedIndex != null) {
+            return new Load(hoistedIndex);
+        }
+        Integer index = shared.get(expression);
+        if (index == null) {
+            return memoized(expression);
+        }
+        return stored.add(expression) ? new Store(index, memoized(expression)) : new Load(index);
+    }
+
+    private CompiledExpression memoized(ASTNode expression) {
+        CompiledExpression compiled = compileNode(expression);
+        return expression.getMemo() >= 0 ? new Memo(expression.getMemo(), compiled) : compiled;
+    }
+
+    private CompiledExpression compileNode(ASTNode expression) {
+        List<ASTNode> children = expression.getChildren();
+        switch (expression.getValue()) {
+            case "+":
+                return new Add(expression(children.get(0)), expression(children.get(1)));
+            case "-":
+                return new Subtract(expression(children.get(0)), expression(children.get(1)));
+            case "*":
+                return new Multiply(expression(children.get(0)), expression(children.get(1)));
+            case "/": {
+                CompiledExpression denominator = expression(children.get(1));
+                return new Divide(expression(children.get(0)), denominator);
+            }
+            case "sqrt":
+                return new Sqrt(expression(children.get(0)));
+            case "log":
+                return new Log(expression(children.get(0)));
+            case "orNode":
+            case "maxNode":
+            case "false":
+                return new Constant(0.0);
+            case "andNode":
+            case "minNode":
+            case "true":
+                return new Constant(1.0);
+            case "unknown":
+                return new Constant(-1.0);
+            case "inf":
+                return new Constant(Double.POSITIVE_INFINITY);
+            case "numChildren":
+                return new NumChildren();
+            case "depth":
+                return new Depth();
+            case "Aggregate":
+                return new Aggregate(children.get(0).getValue(), children.get(1), expression.getSlot());
+            case "Parent":
+                return new ParentOf(expression(children.get(0)));
+            case "ExternalFunction":
+                return new External(bindExternal(expression));
+            default:
+                if (expression.getSlot() >= 0) {
+                    return selection ? new SelectionAttribute(expression.getSlot()) : new Attribute(expression.getSlot());
+                }
+                if (expression.getGlobal() >= 0) {
+                    return new Global(expression.getGlobal());
+                }
+                try {
+                    return new Constant(Double.parseDouble(expression.getValue()));
+                } catch (NumberFormatException e) {
+                    // A string-keyed value, only known by name at runtime
+                    return new Variable(expression.getValue());
+                }
+        }
+    }
+
+    private CompiledCondition condition(ASTNode condition) {
+        List<ASTNode> children = condition.getChildren();
+        switch (condition.getValue()) {
+            case "eq":
+                return new Equal(expression(children.get(0)), expression(children.get(1)));
+            case "neq":
+                return new NotEqual(expression(children.get(0)), expression(children.get(1)));
+            case "lt":
+                return new LessThan(expression(children.get(0)), expression(children.get(1)));
+            case "gt":
+                return new GreaterThan(expression(children.get(0)), expression(children.get(1)));
+            case "lte":
+                return new LessOrEqual(expression(children.get(0)), expression(children.get(1)));
+            case "gte":
+                return new GreaterOrEqual(expression(children.get(0)), expression(children.get(1)));
+            case "and":
+                return new And(condition(children.get(0)), condition(children.get(1)));
+            case "or":
+                return new Or(condition(children.get(0)), condition(children.get(1)));
+            default:
+                return new UnexpectedCondition(condition.getValue());
+        }
+    }
+
+    static final class Store extends CompiledExpression {
+        final int index;
+        final CompiledExpression expression;
+
+        Store(int index, CompiledExpression expression) {
+            this.index = index;
+            this.expression = expression;
+        }
+
+        @Override
+        public double evaluate(Node<?> node) {
+            double value = expression.evaluate(node);
+            SCRATCH.get()[index] = value;
+            return value;
+        }
+
+        @Override
+        public double evaluate(TreeArena tree, int node) {
+            double value = expression.evaluate(tree, node);
+            SCRATCH.get()[index] = value;
+            return value;
+        }
+    }
+
+    static final class Load extends CompiledExpression {
+        final int index;
+
+        Load(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public double evaluate(Node<?> node) {
+            return SCRATCH.get()[index];
+        }
+
+        @Override
+        public double evaluate(TreeArena tree, int node) {
+            return SCRATCH.get()[index];
+        }
+    }
+
+    // A pure expression of the node's own attributes, cached on the node until one of them changes
+    static final class Memo extends CompiledExpression {
+        final int memo;
+        final CompiledExpression expression;
+
+        Memo(int memo, CompiledExpression expression) {
+            this.memo = memo;
+            this.expression = expression;
+        }
+
+        @Override
+        public double evaluate(Node<?> node) {
+            return node.memoized(memo, expression);
+        }
+
+        @Override
+        public double evaluate(TreeArena tree, int node) {
+            return tree.memoized(node, memo, expression);
+        }
+    }
+
+    static final class Constant extends CompiledExpression {
+        final double value;
+
+        Constant(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public double evaluate(Node<?> node) {
+            return value;
+        }
+
+        @Override
+        public double evaluate(TreeArena tree, int node) {
+            return value;
+        }
+    }
+
+    static final class Attribute extends CompiledExpression {
+        final int slot;
+
+        Attribute(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public double evaluate(Node<?> node) {
+            return node.getValue(slot);
+        }
+
+        @Override
+        public double evaluate(TreeArena tree, int node) {
+            return tree.getValue(node, slot);
+        }
+    }
+
+    // An attribute as Selection sees it, only object trees carry virtual loss
+    static final class SelectionAttribute extends CompiledExpression {
+        final int slot;
+
+        SelectionAttribute(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public double evaluate(Node<?> node) {
+            return node.selectionValue(slot);
+        }
+
+        @Override
+        public double evaluate(TreeArena tree, int node) {
+            return tree.getValue(node, slot);
+        }
+    }
+
+    // A Defined global, read from the frame of the search
+    static final class Global extends CompiledExpression {
+        final int index;
+
+        Global(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public double evaluate(Node<?> node) {
+            return node.getFrame().get(index);
+        }
+
+        @Override
+        public double evaluate(TreeArena tree, int node) {
+            return tree.getFrame().get(index);
+        }
+    }
+
+    // A name only known at runtime
+    static final class Variable extends CompiledExpression {
+        final String name;
+
+        Variable(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public double evaluate(Node<?> node) {
+            if (node.hasValue(name)) {
+                return node.getValue(name);
+            }
+            return parseOrFail(name);
+        }
+
+        @Override
+        public double evaluate(TreeArena tree, int node) {
+            return parseOrFail(name);
+        }
+
+        private static double parseOrFail(String name) {
+            try {
+                return Double.parseDouble(name);
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("Unexpected expression: " + name);
+            }
+        }
+    }
+
+    static final class Add extends CompiledExpression {
+        final CompiledExpression left;
+        final CompiledExpression right;
+
+        Add(CompiledExpression left, CompiledExpression right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public double evaluate(Node<?> node) {
+            return left.evaluate(node) + right.evaluate(node);
+        }
+
+        @Override
+        public double evaluate(TreeArena tree, int node) {
+            return left.evaluate(tree, node) + right.evaluate(tree, node);
+        }
+    }
+
+    static final class Subtract extends CompiledExpression {
+        final CompiledExpression left;
+        final CompiledExpression right;
+
+        Subtract(CompiledExpression left, CompiledExpression right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public double evaluate(Node<?> node) {
+            return left.evaluate(node) - right.evaluate(node);
+        }
+
+        @Override
+        public double evaluate(TreeArena tree, int node) {
+            return left.evaluate(tree, node) - right.evaluate(tree, node);
+        }
+    }
+
+    static final class Multiply extends CompiledExpression {
+        final CompiledExpression left;
+        final CompiledExpression right;
+
+        Multiply(CompiledExpression left, CompiledExpression right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public double evaluate(Node<?> node) {
+            return left.evaluate(node) * right.evaluate(node);
+        }
+
+        @Override
+        public double evaluate(TreeArena tree, int node) {
+            return left.evaluate(tree, node) * right.evaluate(tree, node);
+        }
+    }
+
+    // Division by zero divides by 1, and the denominator is evaluated first, as in the interpreter
+    static final class Divide extends CompiledExpression {
+        final CompiledExpression numerator;
+        final CompiledExpression denominator;
+
+        Divide(CompiledExpression numerator, CompiledExpression denominator) {
+            this.numerator = numerator;
+            this.denominator = denominator;
+        }
+
+        @Override
+        public double evaluate(Node<?> node) {
+            double divisor = denominator.evaluate(node);
+            return numerator.evaluate(node) / (divisor == 0 ? 1 : divisor);
+        }
+
+        @Override
+        public double evaluate(TreeArena tree, int node) {
+            double divisor = denominator.evaluate(tree, node);
+            return numerator.evaluate(tree, node) / (divisor == 0 ? 1 : divisor);
+        }
+    }
+
+    static final class Sqrt extends CompiledExpression {
+        final CompiledExpression operand;
+
+        Sqrt(CompiledExpression operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        public double evaluate(Node<?> node) {
+            return Math.sqrt(operand.evaluate(node));
+        }
+
+        @Override
+        public double evaluate(TreeArena tree, int node) {
+            return Math.sqrt(operand.evaluate(tree, node));
+        }
+    }
+
+    static final class Log extends CompiledExpression {
+        final CompiledExpression operand;
+
+        Log(CompiledExpression operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        public double evaluate(Node<?> node) {
+            return Math.log(operand.evaluate(node));
+        }
+
+        @Override
+        public double evaluate(TreeArena tree, int node) {
+            return Math.log(operand.evaluate(tree, node));
+        }
+    }
+
+    static final class NumChildren extends CompiledExpression {
+        @Override
+        public double evaluate(Node<?> node) {
+            return node.getChildren().size();
+        }
+
+        @Override
+        public double evaluate(TreeArena tree, int node) {
+            return tree.getChildCount(node);
+        }
+    }
+
+    static final class Depth extends CompiledExpression {
+        @Override
+        public double evaluate(Node<?> node) {
+            return node.getDepth();
+        }
+
+        @Override
+        public double evaluate(TreeArena tree, int node) {
+            return tree.getDepth(node);
+        }
+    }
+
+    static final class ParentOf extends CompiledExpression {
+        final CompiledExpression operand;
+
+        ParentOf(CompiledExpression operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        public double evaluate(Node<?> node) {
+            Node<?> parent = node.getParent();
+            if (parent == null) {
+                throw new RuntimeException("Node has no parent when evaluating: Parent");
+            }
+            return operand.evaluate(parent);
+        }
+
+        @Override
+        public double evaluate(TreeArena tree, int node) {
+            int parent = tree.getParent(node);
+            if (parent < 0) {
+                throw new RuntimeException("Node has no parent when evaluating: Parent");
+            }
+            return operand.evaluate(tree, parent);
+        }
+    }
+
+    // Childless nodes aggregate to their own value, declared aggregates are read from the parent's cache
+    static final class Aggregate extends CompiledExpression {
+        static final int MIN = 0;
+        static final int MAX = 1;
+        static final int SUM = 2;
+        static final int AVG = 3;
+
+        final String operationName;
+        final int operation;
+        final int slot;
+        final String name; // string-keyed fallback for parameters without a slot
+        final int aggregate;
+
+        Aggregate(String operationName, ASTNode parameter, int aggregate) {
+            this.operationName = operationName;
+            this.operation = switch (operationName) {
+                case "min" -> MIN;
+                case "max" -> MAX;
+                case "sum" -> SUM;
+                case "avg" -> AVG;
+                default -> -1;
+            };
+            this.slot = parameter.getSlot();
+            this.name = parameter.getValue();
+            this.aggregate = aggregate;
+        }
+
+        @Override
+        public double evaluate(Node<?> node) {
+            if (aggregate >= 0) {
+                return node.getAggregate(aggregate);
+            }
+            List<? extends Node<?>> children = node.getChildren();
+            if (children.isEmpty()) {
+                return slot >= 0 ? node.getValue(slot) : node.getValue(name);
+            }
+            int size = children.size();
+            switch (operation) {
+                case MIN: {
+                    double min = Double.POSITIVE_INFINITY;
+                    for (int i = 0; i < size; i++) {
+                        min = Math.min(min, valueOf(children.get(i)));
+                    }
+                    return min;
+                }
+                case MAX: {
+                    double max = Double.NEGATIVE_INFINITY;
+                    for (int i = 0; i < size; i++) {
+                        max = Math.max(max, valueOf(children.get(i)));
+                    }
+                    return max;
+                }
+                case SUM:
+                case AVG: {
+                    double sum = 0.0;
+                    for (int i = 0; i < size; i++) {
+                        sum += valueOf(children.get(i));
+                    }
+                    return operation == SUM ? sum : sum / size;
+                }
+                default:
+                    throw new RuntimeException("Unexpected aggregate operation: " + operationName);
+            }
+        }
+
+        private double valueOf(Node<?> child) {
+            return slot >= 0 ? child.getValue(slot) : child.getValue(name);
+        }
+
+        @Override
+        public double evaluate(TreeArena tree, int node) {
+            if (aggregate >= 0) {
+                return tree.getAggregate(node, aggregate);
+            }
+            if (slot < 0) {
+                // Only compiled attributes are stored in the arena, anything else reads as 0
+                return 0.0;
+            }
+            int numChildren = tree.getChildCount(node);
+            if (numChildren == 0) {
+                return tree.getValue(node, slot);
+            }
+            double[] column = tree.getColumn(slot);
+            int from = tree.getFirstChild(node);
+            int to = from + numChildren;
+            switch (operation) {
+                case MIN: {
+                    double min = Double.POSITIVE_INFINITY;
+                    for (int child = from; child < to; child++) {
+                        min = Math.min(min, column[child]);
+                    }
+                    return min;
+                }
+                case MAX: {
+                    double max = Double.NEGATIVE_INFINITY;
+                    for (int child = from; child < to; child++) {
+                        max = Math.max(max, column[child]);
+                    }
+                    return max;
+                }
+                case SUM:
+                case AVG: {
+                    double sum = 0.0;
+                    for (int child = from; child < to; child++) {
+                        sum += column[child];
+                    }
+                    return operation == SUM ? sum : sum / numChildren;
+                }
+                default:
+                    throw new RuntimeException("Unexpected aggregate operation: " + operationName);
+            }
+        }
+    }
+
+    // Bound when compiled, so functions must be registered before the algorithm is compiled
+    // The registered function, configured by the constant argument of (ExternalFunction "name" node argument) if there is one
+    static <T> EvalFunction<T> bindExternal(ASTNode expression) {
+        List<ASTNode> children = expression.getChildren();
+        String functionName = children.get(0).getValue();
+        EvalFunction<T> function = FunctionRegistry.getEvalFunction(functionName);
+        if (function == null) {
+            throw new RuntimeException("External function not found: " + functionName);
+        }
+        if (children.size() > 2) {
+            ASTNode argument = children.get(2);
+            if (argument.getType() != ASTNode.NodeType.NUMBER) {
+                throw new RuntimeException("ExternalFunction argument is not a number: " + argument.getValue());
+            }
+            function = function.withArgument(Double.parseDouble(argument.getValue()));
+        }
+        return function;
+    }
+
+    static final class External extends CompiledExpression {
+        final EvalFunction<Object> function;
+
+        External(EvalFunction<Object> function) {
+            this.function = function;
+        }
+
+        @Override
+        public double evaluate(Node<?> node) {
+            return function.evaluate(node);
+        }
+
+        @Override
+        public double evaluate(TreeArena tree, int node) {
+            return function.evaluate(tree.stateOf(node));
+        }
+    }
+
+    static final class Equal extends CompiledCondition {
+        final CompiledExpression left;
+        final CompiledExpression right;
+
+        Equal(CompiledExpression left, CompiledExpression right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean evaluate(Node<?> node) {
+            return left.evaluate(node) == right.evaluate(node);
+        }
+
+        @Override
+        public boolean evaluate(TreeArena tree, int node) {
+            return left.evaluate(tree, node) == right.evaluate(tree, node);
+        }
+    }
+
+    static final class NotEqual extends CompiledCondition {
+        final CompiledExpression left;
+        final CompiledExpression right;
+
+        NotEqual(CompiledExpression left, CompiledExpression right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean evaluate(Node<?> node) {
+            return left.evaluate(node) != right.evaluate(node);
+        }
+
+        @Override
+        public boolean evaluate(TreeArena tree, int node) {
+            return left.evaluate(tree, node) != right.evaluate(tree, node);
+        }
+    }
+
+    static final class LessThan extends CompiledCondition {
+        final CompiledExpression left;
+        final CompiledExpression right;
+
+        LessThan(CompiledExpression left, CompiledExpression right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean evaluate(Node<?> node) {
+            return left.evaluate(node) < right.evaluate(node);
+        }
+
+        @Override
+        public boolean evaluate(TreeArena tree, int node) {
+            return left.evaluate(tree, node) < right.evaluate(tree, node);
+        }
+    }
+
+    static final class GreaterThan extends CompiledCondition {
+        final CompiledExpression left;
+        final CompiledExpression right;
+
+        GreaterThan(CompiledExpression left, CompiledExpression right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean evaluate(Node<?> node) {
+            return left.evaluate(node) > right.evaluate(node);
+        }
+
+        @Override
+        public boolean evaluate(TreeArena tree, int node) {
+            return left.evaluate(tree, node) > right.evaluate(tree, node);
+        }
+    }
+
+    static final class LessOrEqual extends CompiledCondition {
+        final CompiledExpression left;
+        final CompiledExpression right;
+
+        LessOrEqual(CompiledExpression left, CompiledExpression right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean evaluate(Node<?> node) {
+            return left.evaluate(node) <= right.evaluate(node);
+        }
+
+        @Override
+        public boolean evaluate(TreeArena tree, int node) {
+            return left.evaluate(tree, node) <= right.evaluate(tree, node);
+        }
+    }
+
+    static final class GreaterOrEqual extends CompiledCondition {
+        final CompiledExpression left;
+        final CompiledExpression right;
+
+        GreaterOrEqual(CompiledExpression left, CompiledExpression right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean evaluate(Node<?> node) {
+            return left.evaluate(node) >= right.evaluate(node);
+        }
+
+        @Override
+        public boolean evaluate(TreeArena tree, int node) {
+            return left.evaluate(tree, node) >= right.evaluate(tree, node);
+        }
+    }
+
+    static final class And extends CompiledCondition {
+        final CompiledCondition left;
+        final CompiledCondition right;
+
+        And(CompiledCondition left, CompiledCondition right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean evaluate(Node<?> node) {
+            return left.evaluate(node) && right.evaluate(node);
+        }
+
+        @Override
+        public boolean evaluate(TreeArena tree, int node) {
+            return left.evaluate(tree, node) && right.evaluate(tree, node);
+        }
+    }
+
+    static final class Or extends CompiledCondition {
+        final CompiledCondition left;
+        final CompiledCondition right;
+
+        Or(CompiledCondition left, CompiledCondition right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean evaluate(Node<?> node) {
+            return left.evaluate(node) || right.evaluate(node);
+        }
+
+        @Override
+        public boolean evaluate(TreeArena tree, int node) {
+            return left.evaluate(tree, node) || right.evaluate(tree, node);
+        }
+    }
+
+    static final class UnexpectedCondition extends CompiledCondition {
+        final String name;
+
+        UnexpectedCondition(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean evaluate(Node<?> node) {
+            throw new RuntimeException("Unexpected condition: " + name);
+        }
+
+        @Override
+        public boolean evaluate(TreeArena tree, int node) {
+            throw new RuntimeException("Unexpected condition: " + name);
+        }
+    }
+}
@@ -1,35 +1,41 @@
 package parser;
 
 import java.util.List;
-import java.util.Map;
-import java.util.function.Function;
 
-import utils.FunctionRegistry;
-import utils.GlobalVariableRegistry;
+import utils.EvalFunction;
 
 public class ExpressionEvaluator {
 
     public static <T extends Node<T>> double evaluateExpression(ASTNode expression, T node) {
+        return evaluate(expression, node, false);
+    }
+
+    // A SelectNode score, whose attributes are read with their virtual loss, see Node.selectionValue
+    public static <T extends Node<T>> double evaluateScore(ASTNode score, T node) {
+        return evaluate(score, node, true);
+    }
+
+    private static <T extends Node<T>> double evaluate(ASTNode expression, T node, boolean selection) {
         switch (expression.getValue()) {
             case "+":
-                return evaluateExpression(expression.getChildren().get(0), node) +
-                        evaluateExpression(expression.getChildren().get(1), node);
+                return evaluate(expression.getChildren().get(0), node, selection) +
+                        evaluate(expression.getChildren().get(1), node, selection);
             case "-":
-                return evaluateExpression(expression.getChildren().get(0), node) -
-                        evaluateExpression(expression.getChildren().get(1), node);
+                return evaluate(expression.getChildren().get(0), node, selection) -
+                        evaluate(expression.getChildren().get(1), node, selection);
             case "*":
-                return evaluateExpression(expression.getChildren().get(0), node) *
-                        evaluateExpression(expression.getChildren().get(1), node);
+                return evaluate(expression.getChildren().get(0), node, selection) *
+                        evaluate(expression.getChildren().get(1), node, selection);
             case "/":
-                double denominator = evaluateExpression(expression.getChildren().get(1), node);
+                double denominator = evaluate(expression.getChildren().get(1), node, selection);
                 if (denominator == 0) {
                     denominator = 1;
                 }
-                return evaluateExpression(expression.getChildren().get(0), node) / denominator;
+                return evaluate(expression.getChildren().get(0), node, selection) / denominator;
             case "sqrt":
-                return Math.sqrt(evaluateExpression(expression.getChildren().get(0), node));
+                return Math.sqrt(evaluate(expression.getChildren().get(0), node, selection));
             case "log":
-                return Math.log(evaluateExpression(expression.getChildren().get(0), node));
+                return Math.log(evaluate(expression.getChildren().get(0), node, selection));
             case "orNode":
                 return 0.0; // Value representing orNode/maxNode
             case "maxNode":
@@ -58,21 +64,19 @@ public class ExpressionEvaluator {
                     throw new RuntimeException("Node has no parent when evaluating: " + expression.getValue());
                 }
                 // Get the parameter name from the first child of Parent
-                return evaluateExpression(expression.getChildren().get(0), parentNode);
+                return evaluate(expression.getChildren().get(0), parentNode, selection);
 
             case "ExternalFunction":
-                String functionName = expression.getChildren().get(0).getValue();
-
-                if (!FunctionRegistry.hasEvalFunction(functionName)) {
-                    throw new RuntimeException("External function not found: " + functionName);
-                }
-                Function<T, Double> function = FunctionRegistry.getEvalFunction(functionName);
-                return function.apply(node);
+                EvalFunction<T> function = ExpressionCompiler.bindExternal(expression);
+                return function.evaluate(node);
 
             default:
-                Map<String, Double> variables = GlobalVariableRegistry.getInstanceVariables(node.getSearchId());
-                if (variables != null && variables.containsKey(expression.getValue())) {
-                    return variables.get(expression.getValue());
+                int slot = expression.getSlot();
+                if (slot >= 0) {
+                    return selection ? node.selectionValue(slot) : node.getValue(slot);
+                }
+                if (expression.getGlobal() >= 0) {
+                    return node.getFrame().get(expression.getGlobal());
                 } else if (node.hasValue(expression.getValue())) {
                     return node.getValue(expression.getValue());
                 } else if (isNumeric(expression.getValue())) {
@@ -85,51 +89,223 @@ public class ExpressionEvaluator {
 
     private static <T extends Node<T>> double evaluateAggregate(ASTNode expression, T node) {
         String operation = expression.getChildren().get(0).getValue();
-        String parameter = expression.getChildren().get(1).getValue();
+        ASTNode parameter = expression.getChildren().get(1);
         List<T> children = node.getChildren();
 
+        if (expression.getSlot() >= 0) {
+            return node.getAggregate(expression.getSlot());
+        }
+        if (parameter.getSlot() < 0) {
+            // Not a compiled attribute, fall back to the string-keyed lookup
+            String name = parameter.getValue();
+            if (children.isEmpty()) {
+                return node.getValue(name);
+            }
+            return switch (operation) {
+                case "min" -> children.stream().mapToDouble(child -> child.getValue(name)).min().orElse(Double.POSITIVE_INFINITY);
+                case "max" -> children.stream().mapToDouble(child -> child.getValue(name)).max().orElse(Double.NEGATIVE_INFINITY);
+                case "sum" -> children.stream().mapToDouble(child -> child.getValue(name)).sum();
+                case "avg" -> children.stream().mapToDouble(child -> child.getValue(name)).average().orElse(0.0);
+                default -> throw new RuntimeException("Unexpected aggregate operation: " + operation);
+            };
+        }
+
+        int slot = parameter.getSlot();
         if (children.isEmpty()) {
-            return node.getValue(parameter);
+            return node.getValue(slot);
         }
 
-        return switch (operation) {
-            case "min" -> children.stream()
-                    .mapToDouble(child -> child.getValue(parameter))
-                    .min()
-                    .orElse(Double.POSITIVE_INFINITY);
-            case "max" -> children.stream()
-                    .mapToDouble(child -> child.getValue(parameter))
-                    .max()
-                    .orElse(Double.NEGATIVE_INFINITY);
-            case "sum" -> children.stream()
-                    .mapToDouble(child -> child.getValue(parameter))
-                    .sum();
-            case "avg" -> children.stream()
-                    .mapToDouble(child -> child.getValue(parameter))
-                    .average()
-                    .orElse(0.0);
-            default -> throw new RuntimeException("Unexpected aggregate operation: " + operation);
-        };
+        int size = children.size();
+        switch (operation) {
+            case "min": {
+                double min = Double.POSITIVE_INFINITY;
+                for (int i = 0; i < size; i++) {
+                    min = Math.min(min, children.get(i).getValue(slot));
+                }
+                return min;
+            }
+            case "max": {
+                double max = Double.NEGATIVE_INFINITY;
+                for (int i = 0; i < size; i++) {
+                    max = Math.max(max, children.get(i).getValue(slot));
+                }
+                return max;
+            }
+            case "sum":
+            case "avg": {
+                double sum = 0.0;
+                for (int i = 0; i < size; i++) {
+                    sum += children.get(i).getValue(slot);
+                }
+                return operation.equals("sum") ? sum : sum / size;
+            }
+            default:
+                throw new RuntimeException("Unexpected aggregate operation: " + operation);
+        }
+    }
+
+    public static double evaluateExpression(ASTNode expression, TreeArena tree, int node) {
+        switch (expression.getValue()) {
+            case "+":
+                return evaluateExpression(expression.getChildren().get(0), tree, node) +
+                        evaluateExpression(expression.getChildren().get(1), tree, node);
+            case "-":
+                return evaluateExpression(expression.getChildren().get(0), tree, node) -
+                        evaluateExpression(expression.getChildren().get(1), tree, node);
+            case "*":
+                return evaluateExpression(expression.getChildren().get(0), tree, node) *
+                        evaluateExpression(expression.getChildren().get(1), tree, node);
+            case "/":
+                double denominator = evaluateExpression(expression.getChildren().get(1), tree, node);
+                if (denominator == 0) {
+                    denominator = 1;
+                }
+                return evaluateExpression(expression.getChildren().get(0), tree, node) / denominator;
+            case "sqrt":
+                return Math.sqrt(evaluateExpression(expression.getChildren().get(0), tree, node));
+            case "log":
+                return Math.log(evaluateExpression(expression.getChildren().get(0), tree, node));
+            case "orNode":
+            case "maxNode":
+            case "false":
+                return 0.0;
+            case "andNode":
+            case "minNode":
+            case "true":
+                return 1.0;
+            case "unknown":
+                return -1.0;
+            case "numChildren":
+                return tree.getChildCount(node);
+            case "Aggregate":
+                return evaluateAggregate(expression, tree, node);
+            case "inf":
+                return Double.POSITIVE_INFINITY;
+            case "depth":
+                return tree.getDepth(node);
+            case "Parent":
+                int parentNode = tree.getParent(node);
+                if (parentNode < 0) {
+                    throw new RuntimeException("Node has no parent when evaluating: " + expression.getValue());
+                }
+                return evaluateExpression(expression.getChildren().get(0), tree, parentNode);
+
+            case "ExternalFunction":
+                EvalFunction<GameState> function = ExpressionCompiler.bindExternal(expression);
+                return function.evaluate(tree.stateOf(node));
+
+            default:
+                int slot = expression.getSlot();
+                if (slot >= 0) {
+                    return tree.getValue(node, slot);
+                }
+                if (expression.getGlobal() >= 0) {
+                    return tree.getFrame().get(expression.getGlobal());
+                } else if (isNumeric(expression.getValue())) {
+                    return Double.parseDouble(expression.getValue());
+                } else {
+                    throw new RuntimeException("Unexpected expression: " + expression.getValue());
+                }
+        }
+    }
+
+    private static double evaluateAggregate(ASTNode expression, TreeArena tree, int node) {
+        String operation = expression.getChildren().get(0).getValue();
+        int slot = expression.getChildren().get(1).getSlot();
+        if (slot < 0) {
+            // Only compiled attributes are stored in the arena, anything else reads as 0
+            return 0.0;
+        }
+        if (expression.getSlot() >= 0) {
+            return tree.getAggregate(node, expression.getSlot());
+        }
+
+        int numChildren = tree.getChildCount(node);
+        if (numChildren == 0) {
+            return tree.getValue(node, slot);
+        }
+
+        double[] column = tree.getColumn(slot);
+        int from = tree.getFirstChild(node);
+        int to = from + numChildren;
+        switch (operation) {
+            case "min": {
+                double min = Double.POSITIVE_INFINITY;
+                for (int child = from; child < to; child++) {
+                    min = Math.min(min, column[child]);
+                }
+                return min;
+            }
+            case "max": {
+                double max = Double.NEGATIVE_INFINITY;
+                for (int child = from; child < to; child++) {
+                    max = Math.max(max, column[child]);
+                }
+                return max;
+            }
+            case "sum":
+            case "avg": {
+                double sum = 0.0;
+                for (int child = from; child < to; child++) {
+                    sum += column[child];
+                }
+                return operation.equals("sum") ? sum : sum / numChildren;
+            }
+            default:
+                throw new RuntimeException("Unexpected aggregate operation: " + operation);
+        }
     }
 
     public static <T extends Node<T>> boolean evaluateCondition(ASTNode condition, T node) {
+        return condition(condition, node, false);
+    }
+
+    // The guard of a SelectNode, which reads attributes with their virtual loss like the score
+    public static <T extends Node<T>> boolean evaluateGuard(ASTNode guard, T node) {
+        return condition(guard, node, true);
+    }
+
+    private static <T extends Node<T>> boolean condition(ASTNode condition, T node, boolean selection) {
+        return switch (condition.getValue()) {
+            case "eq" -> evaluate(condition.getChildren().get(0), node, selection) ==
+                    evaluate(condition.getChildren().get(1), node, selection);
+            case "neq" -> evaluate(condition.getChildren().get(0), node, selection) !=
+                    evaluate(condition.getChildren().get(1), node, selection);
+            case "lt" -> evaluate(condition.getChildren().get(0), node, selection) <
+                    evaluate(condition.getChildren().get(1), node, selection);
+            case "gt" -> evaluate(condition.getChildren().get(0), node, selection) >
+                    evaluate(condition.getChildren().get(1), node, selection);
+            case "lte" -> evaluate(condition.getChildren().get(0), node, selection) <=
+                    evaluate(condition.getChildren().get(1), node, selection);
+            case "gte" -> evaluate(condition.getChildren().get(0), node, selection) >=
+                    evaluate(condition.getChildren().get(1), node, selection);
+            case "and" -> condition(condition.getChildren().get(0), node, selection) &&
+                    condition(condition.getChildren().get(1), node, selection);
+            case "or" -> condition(condition.getChildren().get(0), node, selection) ||
+                    condition(condition.getChildren().get(1), node, selection);
+            default -> throw new RuntimeException("Unexpected condition: " + condition.getValue());
+        };
+    }
+
+
+    public static boolean evaluateCondition(ASTNode condition, TreeArena tree, int node) {
         return switch (condition.getValue()) {
-            case "eq" -> evaluateExpression(condition.getChildren().get(0), node) ==
-                    evaluateExpression(condition.getChildren().get(1), node);
-            case "neq" -> evaluateExpression(condition.getChildren().get(0), node) !=
-                    evaluateExpression(condition.getChildren().get(1), node);
-            case "lt" -> evaluateExpression(condition.getChildren().get(0), node) <
-                    evaluateExpression(condition.getChildren().get(1), node);
-            case "gt" -> evaluateExpression(condition.getChildren().get(0), node) >
-                    evaluateExpression(condition.getChildren().get(1), node);
-            case "lte" -> evaluateExpression(condition.getChildren().get(0), node) <=
-                    evaluateExpression(condition.getChildren().get(1), node);
-            case "gte" -> evaluateExpression(condition.getChildren().get(0), node) >=
-                    evaluateExpression(condition.getChildren().get(1), node);
-            case "and" -> evaluateCondition(condition.getChildren().get(0), node) &&
-                    evaluateCondition(condition.getChildren().get(1), node);
-            case "or" -> evaluateCondition(condition.getChildren().get(0), node) ||
-                    evaluateCondition(condition.getChildren().get(1), node);
+            case "eq" -> evaluateExpression(condition.getChildren().get(0), tree, node) ==
+                    evaluateExpression(condition.getChildren().get(1), tree, node);
+            case "neq" -> evaluateExpression(condition.getChildren().get(0), tree, node) !=
+                    evaluateExpression(condition.getChildren().get(1), tree, node);
+            case "lt" -> evaluateExpression(condition.getChildren().get(0), tree, node) <
+                    evaluateExpression(condition.getChildren().get(1), tree, node);
+            case "gt" -> evaluateExpression(condition.getChildren().get(0), tree, node) >
+                    evaluateExpression(condition.getChildren().get(1), tree, node);
+            case "lte" -> evaluateExpression(condition.getChildren().get(0), tree, node) <=
+                    evaluateExpression(condition.getChildren().get(1), tree, node);
+            case "gte" -> evaluateExpression(condition.getChildren().get(0), tree, node) >=
+                    evaluateExpression(condition.getChildren().get(1), tree, node);
+            case "and" -> evaluateCondition(condition.getChildren().get(0), tree, node) &&
+                    evaluateCondition(condition.getChildren().get(1), tree, node);
+            case "or" -> evaluateCondition(condition.getChildren().get(0), tree, node) ||
+                    evaluateCondition(condition.getChildren().get(1), tree, node);
             default -> throw new RuntimeException("Unexpected condition: " + condition.getValue());
         };
     }
@@ -0,0 +1,14 @@
+package parser;
+
+import other.context.Context;
+
+/**
+ * What an external evaluation function sees of a search node: the Ludii game state
+ * and the player the search is run for. Implemented by LudiiNode and by the
+ * per-node views handed out by a TreeArena.
+ */
+public interface GameState {
+    Context getContext();
+
+    Integer getPlayerId();
+}
@@ -0,0 +1,36 @@
+package parser;
+
+/**
+ * Base class of the hidden classes the BytecodeGenerator defines, one per search algorithm.
+ * Each block is the statement list of one phase, generated as a single straight-line method.
+ * Parts the generator does not inline are delegated to the closures and executables held here.
+ */
+public abstract class GeneratedCode {
+    protected final CompiledExpression[] expressions;
+    protected final ExecutableStatement[] statements;
+
+    protected GeneratedCode(CompiledExpression[] expressions, ExecutableStatement[] statements) {
+        this.expressions = expressions;
+        this.statements = statements;
+    }
+
+    public abstract Node<?> execute(int block, Node<?> node);
+
+    public abstract int execute(int block, TreeArena tree, int node);
+
+    public static Node<?> parentOf(Node<?> node) {
+        Node<?> parent = node.getParent();
+        if (parent == null) {
+            throw new RuntimeException("Node has no parent when evaluating: Parent");
+        }
+        return parent;
+    }
+
+    public static int parentOf(TreeArena tree, int node) {
+        int parent = tree.getParent(node);
+        if (parent < 0) {
+            throw new RuntimeException("Node has no parent when evaluating: Parent");
+        }
+        return parent;
+    }
+}
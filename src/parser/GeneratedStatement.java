@@ -0,0 +1,30 @@
+package parser;
+
+/**
+ * Runs one block of an algorithm's GeneratedCode in place of the statements it was generated from.
+ */
+public class GeneratedStatement implements ExecutableStatement {
+    private final GeneratedCode code;
+    private final int block;
+
+    public GeneratedStatement(GeneratedCode code, int block) {
+        this.code = code;
+        this.block = block;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Node<T>> T execute(T node) {
+        return (T) code.execute(block, node);
+    }
+
+    @Override
+    public int execute(TreeArena tree, int node) {
+        return code.execute(block, tree, node);
+    }
+
+    @Override
+    public String toString() {
+        return "GeneratedStatement{block=" + block + '}';
+    }
+}
@@ -1,22 +1,48 @@
 package parser;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+
 import other.context.Context;
 import other.move.Move;
 
-public class LudiiNode extends Node<LudiiNode> {
+public class LudiiNode extends Node<LudiiNode> implements GameState {
     private final Integer playerId;
-    private final Context context;
+    private Context context;
     private final Move moveFromParent;
+    private byte terminal = UNKNOWN; // cached trial().over(), so a released context is not rebuilt just to check it
+    private boolean checkpoint = false;
+
+    private static final byte UNKNOWN = -1;
 
     public LudiiNode(final LudiiNode parent, final Context context, final Integer playerId, final Move moveFromParent) {
         super(parent);
         this.playerId = playerId;
         this.context = context;
         this.moveFromParent = moveFromParent;
-        setNodeType(determineNodeType());
+        setNodeType(determineNodeType(context, playerId));
+    }
+
+    // Unexpanded child: the context is only built from the parent's when first requested.
+    // Until then the node type is taken to be the opposite of the parent's, which passes and
+    // repeated moves by one player break, so it is determined again once the context is built.
+    public LudiiNode(final LudiiNode parent, final Integer playerId, final Move moveFromParent) {
+        super(parent);
+        this.playerId = playerId;
+        this.context = null;
+        this.moveFromParent = moveFromParent;
+        setNodeType(parent.getNodeType().equals("orNode") ? "andNode" : "orNode");
     }
 
-    private String determineNodeType() {
+    public LudiiNode(final Context context, final Integer playerId, final AttributeLayout layout) {
+        super(null, layout);
+        this.playerId = playerId;
+        this.context = context;
+        this.moveFromParent = null;
+        setNodeType(determineNodeType(context, playerId));
+    }
+
+    static String determineNodeType(final Context context, final Integer playerId) {
         if (context.trial().over()) {
             return context.state().prev() == playerId ? "andNode" : "orNode";
         } else {
@@ -24,14 +50,75 @@ public class LudiiNode extends Node<LudiiNode> {
         }
     }
 
+    @Override
+    protected long shallowBytes() {
+        return super.shallowBytes() + 3 * REFERENCE_BYTES + 2;
+    }
+
+    @Override
     public Integer getPlayerId() {
         return playerId;
     }
 
+    // Rebuilds a missing context by replaying moves from the nearest ancestor that still holds one
+    @Override
     public Context getContext() {
+        if (context == null) {
+            Deque<Move> moves = new ArrayDeque<>();
+            LudiiNode ancestor = this;
+            while (ancestor.context == null) {
+                moves.push(ancestor.moveFromParent);
+                ancestor = ancestor.getParent();
+            }
+            Context newContext = new Context(ancestor.context);
+            while (!moves.isEmpty()) {
+                newContext.game().apply(newContext, moves.pop());
+            }
+            context = newContext;
+            if (terminal == UNKNOWN) {
+                // First built for a stub, whose node type was only assumed
+                setNodeType(determineNodeType(newContext, playerId));
+            }
+            terminal = (byte) (newContext.trial().over() ? 1 : 0);
+        }
         return context;
     }
 
+    public boolean hasContext() {
+        return context != null;
+    }
+
+    // Drops the context so that it is rebuilt by move replay when needed again, the root always keeps its own
+    public void releaseContext() {
+        if (getParent() != null && context != null) {
+            terminal = (byte) (context.trial().over() ? 1 : 0);
+            context = null;
+        }
+    }
+
+    // Reuses this node as the root of a new search, with the context of the actual game
+    public void promoteToRoot(Context context) {
+        detachFromParent();
+        this.context = context;
+        this.terminal = (byte) (context.trial().over() ? 1 : 0);
+    }
+
+    // A checkpoint keeps its context for move replay by its descendants
+    public void markCheckpoint() {
+        checkpoint = true;
+    }
+
+    public boolean isCheckpoint() {
+        return checkpoint;
+    }
+
+    public boolean isTerminal() {
+        if (terminal == UNKNOWN) {
+            terminal = (byte) (getContext().trial().over() ? 1 : 0);
+        }
+        return terminal == 1;
+    }
+
     public Move getMoveFromParent() {
         return moveFromParent;
     }
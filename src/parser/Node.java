@@ -1,60 +1,397 @@
 package parser;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.*;
 
 
 public class Node<T extends Node<T>> {
-    private final T parent;
-    private final Map<String, Double> values;
-    private List<T> children;
-    private final int depth;
-    private final String searchId;
+    // Rough HotSpot sizes with compressed oops, used for the bytes-per-node estimate
+    protected static final int OBJECT_HEADER_BYTES = 12;
+    protected static final int ARRAY_HEADER_BYTES = 16;
+    protected static final int REFERENCE_BYTES = 4;
+
+    // Atomic access for searches in which several threads share the tree, see VariableFrame.setConcurrent
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(double[].class);
+    private static final VarHandle EXPANSION_CLAIMED;
+    private static final VarHandle VIRTUAL_LOSS;
+
+    static {
+        try {
+            EXPANSION_CLAIMED = MethodHandles.lookup().findVarHandle(Node.class, "expansionClaimed", boolean.class);
+            VIRTUAL_LOSS = MethodHandles.lookup().findVarHandle(Node.class, "virtualLoss", double[].class);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Cannot access the concurrent fields of Node", e);
+        }
+    }
+
+    private T parent;
+    private List<T> extraParents; // further parents of a transposition, null for plain tree nodes
+    private final AttributeLayout layout;
+    private double[] values;
+    private double[] aggregates; // ChildAggregates state of the declared aggregates, allocated with the first child
+    private boolean counted; // in the aggregates of its parents, false while being constructed and once pruned
+    private double[] memos; // memoized expression values, allocated with the first one
+    private int stamp; // advanced by every change to an attribute a memoized expression reads
+    private volatile List<T> children; // replaced as a whole when other threads may be reading it
+    private volatile boolean expansionClaimed; // by the one thread of a concurrent search that expands this leaf
+    private volatile double[] virtualLoss; // offsets of the attributes that only Selection reads, allocated with the first one
+    private int depth;
+    private final VariableFrame frame; // shared by the whole tree
 
     public Node(T parent) {
-        this.values = new HashMap<>();
+        this(parent, parent != null ? parent.getLayout() : new AttributeLayout());
+    }
+
+    public Node(T parent, AttributeLayout layout) {
+        this.layout = layout;
+        this.values = layout.newStorage();
         this.children = new ArrayList<>();
         this.parent = parent;
         if (parent != null) {
             this.depth = parent.getDepth() + 1;
-            this.searchId = parent.getSearchId();
+            this.frame = parent.getFrame();
         } else {
             this.depth = 0;
-            this.searchId = UUID.randomUUID().toString();
+            this.frame = new VariableFrame();
         }
-
-        values.put("visitCount", 0.0);
-        values.put("valueEstimate", 0.0);
-        values.put("proofNumber", 1.0);
-        values.put("disproofNumber", 1.0);
     }
 
     public String getSearchId() {
-        return searchId;
+        return frame.getSearchId();
+    }
+
+    public VariableFrame getFrame() {
+        return frame;
+    }
+
+    public AttributeLayout getLayout() {
+        return layout;
     }
 
     public T getParent() {
         return parent;
     }
 
+    // Makes this node the root of its own tree, keeping its values and subtree
+    public void detachFromParent() {
+        int offset = depth;
+        parent = null;
+        Deque<Node<T>> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            Node<T> current = stack.pop();
+            current.depth -= offset;
+            for (T child : current.children) {
+                stack.push(child);
+            }
+        }
+    }
+
+    // Links this node below another parent as well, turning the tree into a DAG
+    public void addParent(T parent) {
+        if (extraParents == null) {
+            extraParents = new ArrayList<>(2);
+        }
+        extraParents.add(parent);
+    }
+
+    // Unlinks a parent that dropped this node, the primary parent is only replaced by another one
+    void removeParent(Node<T> parent) {
+        if (extraParents == null) {
+            return;
+        }
+        if (this.parent == parent) {
+            this.parent = extraParents.remove(0);
+        } else {
+            extraParents.remove(parent);
+        }
+        if (extraParents.isEmpty()) {
+            extraParents = null;
+        }
+    }
+
+    public boolean hasExtraParents() {
+        return extraParents != null;
+    }
+
+    public List<T> getExtraParents() {
+        return extraParents != null ? extraParents : Collections.emptyList();
+    }
+
+    /**
+     * Adds all children of an expansion at once. Other threads of a concurrent search see either
+     * none or all of them, since the grown list is only published once it is complete.
+     */
+    public void addChildren(List<T> newChildren) {
+        List<T> grown = new ArrayList<>(children.size() + newChildren.size());
+        grown.addAll(children);
+        grown.addAll(newChildren);
+        for (T child : newChildren) {
+            ((Node<T>) child).counted = true;
+        }
+        if (aggregates == null && !grown.isEmpty()) {
+            aggregates = layout.newAggregateStorage();
+        }
+        if (frame.isConcurrent()) {
+            frame.countNodes(newChildren.size());
+        }
+        if (aggregates != null) {
+            boolean concurrent = frame.isConcurrent();
+            for (int aggregate = 0; aggregate * ChildAggregates.STRIDE < aggregates.length; aggregate++) {
+                for (T child : newChildren) {
+                    if (concurrent) {
+                        ChildAggregates.invalidate(aggregates, aggregate * ChildAggregates.STRIDE);
+                    } else {
+                        ChildAggregates.add(layout.aggregateOperation(aggregate), aggregates, aggregate * ChildAggregates.STRIDE,
+                                child.valueOf(layout.aggregateSlot(aggregate)));
+                    }
+                }
+            }
+        }
+        children = grown;
+    }
+
+    // True for exactly one of the threads of a concurrent search that find this leaf unexpanded
+    public boolean claimExpansion() {
+        return EXPANSION_CLAIMED.compareAndSet(this, false, true);
+    }
+
     public void addChild(T child) {
         children.add(child);
+        ((Node<T>) child).counted = true;
+        if (aggregates == null && children.size() == 1) {
+            aggregates = layout.newAggregateStorage();
+        }
+        if (aggregates != null) {
+            for (int aggregate = 0; aggregate * ChildAggregates.STRIDE < aggregates.length; aggregate++) {
+                ChildAggregates.add(layout.aggregateOperation(aggregate), aggregates, aggregate * ChildAggregates.STRIDE,
+                        child.valueOf(layout.aggregateSlot(aggregate)));
+            }
+        }
     }
 
     public List<T> getChildren() {
         return children;
     }
 
+    // Children shared with another parent stay below that one, so they no longer update this node
     public void clearChildren() {
-        children = null;
+        int removed = 0;
+        for (T child : children) {
+            if (child.hasExtraParents()) {
+                child.removeParent(this);
+            } else {
+                ((Node<T>) child).counted = false;
+                if (frame.isConcurrent()) {
+                    removed += child.subtreeSize();
+                }
+            }
+        }
         children = new ArrayList<>();
+        if (removed > 0) {
+            frame.countNodes(-removed);
+        }
+        if (aggregates != null) {
+            boolean concurrent = frame.isConcurrent();
+            for (int aggregate = 0; aggregate * ChildAggregates.STRIDE < aggregates.length; aggregate++) {
+                if (concurrent) {
+                    ChildAggregates.invalidate(aggregates, aggregate * ChildAggregates.STRIDE);
+                } else {
+                    ChildAggregates.reset(layout.aggregateOperation(aggregate), aggregates, aggregate * ChildAggregates.STRIDE);
+                }
+            }
+        }
+        expansionClaimed = false;
+    }
+
+    // Slot-indexed access, used by the compiled executables
+    public double getValue(int slot) {
+        return values[slot];
+    }
+
+    // What SelectNode scores and guards read: the attribute with the virtual loss of the threads of a concurrent search
+    public double selectionValue(int slot) {
+        double[] offsets = virtualLoss;
+        return offsets != null && slot < offsets.length ? values[slot] + offsets[slot] : values[slot];
+    }
+
+    // Adds to the virtual loss of an attribute, atomically. Sets never see it, so running means are not shifted by it.
+    public void addVirtualLoss(int slot, double delta) {
+        double[] offsets = virtualLoss;
+        if (offsets == null) {
+            VIRTUAL_LOSS.compareAndSet(this, null, new double[layout.size()]);
+            offsets = virtualLoss;
+        }
+        double previous;
+        do {
+            previous = (double) VALUES.getVolatile(offsets, slot);
+        } while (!VALUES.compareAndSet(offsets, slot, previous, previous + delta));
+    }
+
+    // Parents are told about changes to aggregated attributes once the child has been added to them
+    public void setValue(int slot, double value) {
+        double previous;
+        if (frame.isConcurrent()) {
+            previous = (double) VALUES.getAndSet(values, slot, value);
+        } else {
+            previous = values[slot];
+            values[slot] = value;
+        }
+        changed(slot, previous, value);
+    }
+
+    // Sets an attribute only if it still holds the expected value, for the retry loops of a concurrent search
+    public boolean compareAndSetValue(int slot, double expected, double value) {
+        if (!VALUES.compareAndSet(values, slot, expected, value)) {
+            return false;
+        }
+        changed(slot, expected, value);
+        return true;
+    }
+
+    // Adds to an attribute, atomically in a concurrent search
+    public void addValue(int slot, double delta) {
+        if (!frame.isConcurrent()) {
+            setValue(slot, values[slot] + delta);
+            return;
+        }
+        double previous;
+        do {
+            previous = (double) VALUES.getVolatile(values, slot);
+        } while (!compareAndSetValue(slot, previous, previous + delta));
+    }
+
+    private void changed(int slot, double previous, double value) {
+        if (Double.compare(previous, value) == 0) {
+            return;
+        }
+        if (layout.isMemoInput(slot)) {
+            stamp++;
+        }
+        int[] aggregated = counted ? layout.aggregatesOf(slot) : null;
+        if (aggregated != null) {
+            if (parent != null) {
+                parent.childChanged(aggregated, previous, value);
+            }
+            if (extraParents != null) {
+                for (T extraParent : extraParents) {
+                    extraParent.childChanged(aggregated, previous, value);
+                }
+            }
+        }
+    }
+
+    // A concurrent search only ever marks the cached aggregates stale, which no other thread can undo
+    void childChanged(int[] aggregated, double previous, double value) {
+        if (aggregates == null) {
+            return;
+        }
+        boolean concurrent = frame.isConcurrent();
+        for (int aggregate : aggregated) {
+            int offset = aggregate * ChildAggregates.STRIDE;
+            if (offset >= aggregates.length) {
+                continue;
+            }
+            if (concurrent) {
+                ChildAggregates.invalidate(aggregates, offset);
+            } else {
+                ChildAggregates.replace(layout.aggregateOperation(aggregate), aggregates, offset, previous, value);
+            }
+        }
+    }
+
+    /**
+     * Value of a declared aggregate over the children. Nodes created before the declaration,
+     * or whose cache went stale, run the same loop as the uncached Aggregate instead, which
+     * also rebuilds the cache, except in a concurrent search. Childless nodes aggregate to their own value.
+     */
+    public double getAggregate(int aggregate) {
+        int slot = layout.aggregateSlot(aggregate);
+        List<T> children = this.children;
+        int size = children.size();
+        if (size == 0) {
+            return valueOf(slot);
+        }
+        int operation = layout.aggregateOperation(aggregate);
+        int offset = aggregate * ChildAggregates.STRIDE;
+        boolean cached = aggregates != null && offset < aggregates.length;
+        if (cached) {
+            if (ChildAggregates.isValid(aggregates, offset)) {
+                return ChildAggregates.value(operation, aggregates, offset, size);
+            }
+            cached = !frame.isConcurrent();
+            if (cached) {
+                ChildAggregates.reset(operation, aggregates, offset);
+            }
+        }
+        double result = ChildAggregates.identity(operation);
+        for (int i = 0; i < size; i++) {
+            double value = children.get(i).valueOf(slot);
+            result = ChildAggregates.combine(operation, result, value);
+            if (cached) {
+                ChildAggregates.add(operation, aggregates, offset, value);
+            }
+        }
+        return ChildAggregates.finish(operation, result, size);
+    }
+
+    // Value of a memoized expression on this node, evaluated again only once one of its inputs changed
+    double memoized(int memo, CompiledExpression expression) {
+        if (frame.isConcurrent()) {
+            return expression.evaluate(this);
+        }
+        int offset = memo * AttributeLayout.MEMO_STRIDE;
+        if (memos == null || offset >= memos.length) {
+            double[] grown = layout.newMemoStorage();
+            if (memos != null) {
+                System.arraycopy(memos, 0, grown, 0, memos.length);
+            }
+            memos = grown;
+        } else if (memos[offset + 1] == stamp) {
+            return memos[offset];
+        }
+        double value = expression.evaluate(this);
+        memos[offset] = value;
+        memos[offset + 1] = stamp;
+        return value;
+    }
+
+    // Slot-indexed access that also covers slots not stored yet, for callers outside the compiled executables
+    public double valueOf(int slot) {
+        return slot < values.length ? values[slot] : layout.defaultValue(slot);
     }
 
+    // String-keyed access, kept as a slow compatibility path
     public boolean hasValue(String key) {
-        return values.containsKey(key);
+        return layout.slotOf(key) >= 0;
     }
 
     public double getValue(String key) {
-        return values.getOrDefault(key, 0.0);
+        int slot = layout.slotOf(key);
+        if (slot < 0) {
+            return layout.defaultValue(key);
+        }
+        return slot < values.length ? values[slot] : layout.defaultValue(slot);
+    }
+
+    // The proof numbers are read by the search itself, and have their defaults where the layout does not store them
+    public double getProofNumber() {
+        int slot = layout.proofNumberSlot();
+        return slot >= 0 ? valueOf(slot) : layout.defaultValue("proofNumber");
+    }
+
+    public double getDisproofNumber() {
+        int slot = layout.disproofNumberSlot();
+        return slot >= 0 ? valueOf(slot) : layout.defaultValue("disproofNumber");
+    }
+
+    // Takes over all attribute values of another node with the same layout
+    public void copyValues(Node<?> other) {
+        int length = Math.min(values.length, other.values.length);
+        for (int slot = 0; slot < length; slot++) {
+            setValue(slot, other.values[slot]);
+        }
     }
 
     public int getDepth() {
@@ -62,24 +399,116 @@ public class Node<T extends Node<T>> {
     }
 
     public void setValue(String key, double value) {
-        values.put(key, value);
+        int slot = layout.intern(key);
+        if (slot >= values.length) {
+            double[] grown = layout.newStorage();
+            System.arraycopy(values, 0, grown, 0, values.length);
+            values = grown;
+        }
+        setValue(slot, value);
     }
 
     public void setNodeType(String nodeType) {
         if (nodeType.equals("orNode")) {
-            values.put("nodeType", 0.0);
+            values[AttributeLayout.NODE_TYPE] = 0.0;
         } else if (nodeType.equals("andNode")) {
-            values.put("nodeType", 1.0);
+            values[AttributeLayout.NODE_TYPE] = 1.0;
         }
+        stamp++;
     }
 
     public String getNodeType() {
-        double type = values.get("nodeType");
+        double type = values[AttributeLayout.NODE_TYPE];
         return type == 0.0 ? "orNode" : "andNode";
     }
 
+    // Estimated bytes of this node and everything below it, excluding Ludii contexts
+    public long estimateSubtreeBytes() {
+        long bytes = 0;
+        for (Node<T> node : subtreeNodes()) {
+            bytes += node.shallowBytes();
+        }
+        return bytes;
+    }
+
+    public int subtreeSize() {
+        return subtreeNodes().size();
+    }
+
+    // Node count and estimated bytes of the subtree from a single walk, for the statistics of a finished search
+    public SubtreeSize measureSubtree() {
+        List<Node<T>> nodes = subtreeNodes();
+        long bytes = 0;
+        for (Node<T> node : nodes) {
+            bytes += node.shallowBytes();
+        }
+        return new SubtreeSize(nodes.size(), bytes);
+    }
+
+    public static final class SubtreeSize {
+        public final int nodes;
+        public final long bytes;
+
+        SubtreeSize(int nodes, long bytes) {
+            this.nodes = nodes;
+            this.bytes = bytes;
+        }
+    }
+
+    // Every node below this one, transpositions reached through several parents are listed once
+    private List<Node<T>> subtreeNodes() {
+        List<Node<T>> nodes = new ArrayList<>();
+        Set<Node<T>> shared = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Node<T>> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            Node<T> current = stack.pop();
+            nodes.add(current);
+            for (T child : current.children) {
+                if (!child.hasExtraParents() || shared.add(child)) {
+                    stack.push(child);
+                }
+            }
+        }
+        return nodes;
+    }
+
+    protected long shallowBytes() {
+        long bytes = align(OBJECT_HEADER_BYTES + 9 * REFERENCE_BYTES + 2 * 4 + 2);
+        bytes += align(ARRAY_HEADER_BYTES + 8L * values.length);
+        if (aggregates != null) {
+            bytes += align(ARRAY_HEADER_BYTES + 8L * aggregates.length);
+        }
+        if (memos != null) {
+            bytes += align(ARRAY_HEADER_BYTES + 8L * memos.length);
+        }
+        if (virtualLoss != null) {
+            bytes += align(ARRAY_HEADER_BYTES + 8L * virtualLoss.length);
+        }
+        bytes += align(OBJECT_HEADER_BYTES + 2 * 4 + REFERENCE_BYTES);
+        if (!children.isEmpty()) {
+            bytes += align(ARRAY_HEADER_BYTES + (long) REFERENCE_BYTES * Math.max(children.size(), 10));
+        }
+        if (extraParents != null) {
+            bytes += align(OBJECT_HEADER_BYTES + 2 * 4 + REFERENCE_BYTES);
+            bytes += align(ARRAY_HEADER_BYTES + (long) REFERENCE_BYTES * Math.max(extraParents.size(), 2));
+        }
+        return bytes;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
     @Override
     public String toString() {
-        return "Node{" + "values=" + values + ", children=" + children + '}';
+        StringBuilder builder = new StringBuilder("{");
+        for (int slot = 0; slot < values.length; slot++) {
+            if (slot > 0) {
+                builder.append(", ");
+            }
+            builder.append(layout.nameOf(slot)).append('=').append(values[slot]);
+        }
+        return "Node{" + "values=" + builder.append('}') + ", children=" + children + '}';
     }
 }
@@ -0,0 +1,510 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Simplifies a SearchAlgorithm AST before the Compiler turns it into executables. It folds
+ * constant subexpressions, including Defines the program never Sets, drops Conditions that
+ * can never hold, and makes identical pure subexpressions of one expression a single shared
+ * ASTNode, which the ExpressionCompiler and BytecodeGenerator then evaluate only once.
+ * Works on a copy, so the AST of an evolved individual is left as it was.
+ */
+public class Optimizer {
+    // Constant values of the keywords, as the ExpressionEvaluator reads them
+    private static final Map<String, Double> KEYWORD_VALUES = Map.of(
+            "orNode", 0.0, "maxNode", 0.0, "false", 0.0,
+            "andNode", 1.0, "minNode", 1.0, "true", 1.0,
+            "unknown", -1.0, "inf", Double.POSITIVE_INFINITY
+    );
+
+    private final Map<String, Double> constants = new HashMap<>();
+
+    public static ASTNode optimize(ASTNode algorithm) {
+        ASTNode optimized = algorithm.clone();
+        try {
+            new Optimizer().optimizeAlgorithm(optimized);
+        } catch (RuntimeException e) {
+            // Malformed programs are left to the Compiler to report
+            return algorithm;
+        }
+        return optimized;
+    }
+
+    private void optimizeAlgorithm(ASTNode algorithm) {
+        for (ASTNode child : algorithm.getChildren()) {
+            if (child.getValue().equals("Define") && child.getChildren().size() == 2) {
+                try {
+                    constants.put(child.getChildren().get(0).getValue(), Double.parseDouble(child.getChildren().get(1).getValue()));
+                } catch (NumberFormatException e) {
+                    // Not a constant, the Compiler rejects it
+                }
+            }
+        }
+        removeAssigned(algorithm, constants.keySet());
+
+        for (ASTNode child : algorithm.getChildren()) {
+            switch (child.getValue()) {
+                case "Selection":
+                    optimizeStatements(child, true, new HashMap<>());
+                    break;
+                case "Evaluation":
+                case "Backpropagation":
+                case "FinalMoveSelection":
+                    optimizeStatements(child, false, new HashMap<>());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    // Removes every variable that a Set anywhere below the node assigns
+    static void removeAssigned(ASTNode node, Set<String> variables) {
+        if (node.getValue().equals("Set") && !node.getChildren().isEmpty()) {
+            variables.remove(node.getChildren().get(0).getValue());
+        }
+        for (ASTNode child : node.getChildren()) {
+            removeAssigned(child, variables);
+        }
+    }
+
+    private static boolean containsSelectNode(ASTNode node) {
+        if (node.getValue().equals("SelectNode")) {
+            return true;
+        }
+        for (ASTNode child : node.getChildren()) {
+            if (containsSelectNode(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Optimizes the statements of a phase or Condition body in place. Facts are the variables
+     * whose value on the current node is known from an enclosing Condition. A Condition that
+     * always holds is replaced by its body, except directly in Selection, where each statement
+     * may end the phase by selecting a child.
+     */
+    private void optimizeStatements(ASTNode block, boolean selection, Map<String, Double> facts) {
+        List<ASTNode> children = block.getChildren();
+        int firstStatement = block.getValue().equals("Condition") ? 1 : 0;
+        List<ASTNode> optimized = new ArrayList<>(children.subList(0, firstStatement));
+        ASTNode firstDropped = null;
+
+        for (ASTNode statement : children.subList(firstStatement, children.size())) {
+            if (statement.getType() == ASTNode.NodeType.NAME) {
+                optimized.add(statement);
+                continue;
+            }
+            switch (statement.getValue()) {
+                case "Set":
+                    replaceChild(statement, 1, foldExpression(statement.getChildren().get(1), facts, 0, 0));
+                    shareCommonSubexpressions(statement.getChildren().get(1));
+                    facts.remove(statement.getChildren().get(0).getValue());
+                    optimized.add(statement);
+                    break;
+                case "SelectNode": {
+                    // The guard and score are evaluated on each child, so facts hold one Parent up
+                    ASTNode score = statement.getChildren().get(1);
+                    if (score.getValue().equals("Condition") && score.getChildren().size() == 2) {
+                        ASTNode guard = foldCondition(score.getChildren().get(0), facts, 1, 0);
+                        replaceChild(score, 0, guard);
+                        replaceChild(score, 1, foldExpression(score.getChildren().get(1), facts, 1, 0));
+                        if (Boolean.TRUE.equals(constantCondition(guard))) {
+                            // Every child passes, so the score is all that is left
+                            replaceChild(statement, 1, score.getChildren().get(1));
+                            shareCommonSubexpressions(statement.getChildren().get(1));
+                        } else {
+                            // Compiled separately, so each shares only within itself
+                            shareCommonSubexpressions(guard);
+                            shareCommonSubexpressions(score.getChildren().get(1));
+                        }
+                    } else {
+                        replaceChild(statement, 1, foldExpression(score, facts, 1, 0));
+                        shareCommonSubexpressions(statement.getChildren().get(1));
+                    }
+                    facts.clear();
+                    optimized.add(statement);
+                    break;
+                }
+                case "Condition": {
+                    ASTNode test = foldCondition(statement.getChildren().get(0), facts, 0, 0);
+                    replaceChild(statement, 0, test);
+                    Boolean holds = constantCondition(test);
+                    if (holds != null && !holds && isWellFormed(statement)) {
+                        firstDropped = firstDropped != null ? firstDropped : statement;
+                        break;
+                    }
+
+                    Map<String, Double> bodyFacts = new HashMap<>(facts);
+                    addFacts(test, bodyFacts);
+                    optimizeStatements(statement, false, bodyFacts);
+                    if (statement.getChildren().size() == 1 && isWellFormedCondition(test)) {
+                        // Nothing left to run, so the test need not be evaluated either
+                        firstDropped = firstDropped != null ? firstDropped : statement;
+                        break;
+                    }
+
+                    if (Boolean.TRUE.equals(holds) && !selection) {
+                        optimized.addAll(statement.getChildren().subList(1, statement.getChildren().size()));
+                    } else {
+                        shareCommonSubexpressions(test);
+                        optimized.add(statement);
+                    }
+
+                    if (containsSelectNode(statement)) {
+                        facts.clear();
+                    } else {
+                        removeAssigned(statement, facts.keySet());
+                    }
+                    break;
+                }
+                default:
+                    optimized.add(statement);
+            }
+        }
+
+        boolean empty = optimized.stream().allMatch(statement -> statement.getType() == ASTNode.NodeType.NAME);
+        if (selection && empty && firstDropped != null) {
+            // Keep Selection non-empty, as the executable expects at least one statement
+            optimized.add(firstDropped);
+        }
+        children.clear();
+        for (ASTNode statement : optimized) {
+            block.addChild(statement);
+        }
+    }
+
+    private static void replaceChild(ASTNode parent, int index, ASTNode child) {
+        parent.getChildren().set(index, child);
+        child.setParent(parent);
+    }
+
+    /**
+     * Folds an expression bottom-up. Scope counts the enclosing Parents, and facts only apply
+     * to leaves evaluated on the node the facts were established for.
+     */
+    private ASTNode foldExpression(ASTNode expression, Map<String, Double> facts, int factScope, int scope) {
+        List<ASTNode> children = expression.getChildren();
+        if (children.isEmpty()) {
+            Double value = leafValue(expression, facts, factScope == scope);
+            return value != null && !isNumber(expression) ? number(value) : expression;
+        }
+
+        switch (expression.getValue()) {
+            case "Parent":
+                replaceChild(expression, 0, foldExpression(children.get(0), facts, factScope, scope + 1));
+                return expression;
+            case "+":
+            case "-":
+            case "*":
+            case "/": {
+                ASTNode left = foldExpression(children.get(0), facts, factScope, scope);
+                ASTNode right = foldExpression(children.get(1), facts, factScope, scope);
+                replaceChild(expression, 0, left);
+                replaceChild(expression, 1, right);
+                if (isNumber(left) && isNumber(right)) {
+                    double a = numberOf(left);
+                    double b = numberOf(right);
+                    switch (expression.getValue()) {
+                        case "+":
+                            return number(a + b);
+                        case "-":
+                            return number(a - b);
+                        case "*":
+                            return number(a * b);
+                        default:
+                            return number(a / (b == 0 ? 1 : b));
+                    }
+                }
+                // Identities that hold for every double
+                if (isNumber(right) && numberOf(right) == 1.0 && (expression.getValue().equals("*") || expression.getValue().equals("/"))) {
+                    return left;
+                }
+                if (isNumber(left) && numberOf(left) == 1.0 && expression.getValue().equals("*")) {
+                    return right;
+                }
+                if (isNumber(right) && Double.doubleToRawLongBits(numberOf(right)) == 0L && expression.getValue().equals("-")) {
+                    return left;
+                }
+                return expression;
+            }
+            case "sqrt":
+            case "log": {
+                ASTNode operand = foldExpression(children.get(0), facts, factScope, scope);
+                replaceChild(expression, 0, operand);
+                if (isNumber(operand)) {
+                    return number(expression.getValue().equals("sqrt") ? Math.sqrt(numberOf(operand)) : Math.log(numberOf(operand)));
+                }
+                return expression;
+            }
+            default:
+                // Aggregates and external functions read other nodes or the game, and are kept
+                return expression;
+        }
+    }
+
+    private Double leafValue(ASTNode leaf, Map<String, Double> facts, boolean factsApply) {
+        String name = leaf.getValue();
+        if (KEYWORD_VALUES.containsKey(name)) {
+            return KEYWORD_VALUES.get(name);
+        }
+        if (constants.containsKey(name)) {
+            return constants.get(name);
+        }
+        if (factsApply && facts.containsKey(name)) {
+            return facts.get(name);
+        }
+        if (isNumber(leaf)) {
+            return numberOf(leaf);
+        }
+        return null;
+    }
+
+    private ASTNode foldCondition(ASTNode condition, Map<String, Double> facts, int factScope, int scope) {
+        List<ASTNode> children = condition.getChildren();
+        switch (condition.getValue()) {
+            case "and":
+            case "or": {
+                if (children.size() != 2) {
+                    return condition;
+                }
+                ASTNode left = foldCondition(children.get(0), facts, factScope, scope);
+                ASTNode right = foldCondition(children.get(1), facts, factScope, scope);
+                replaceChild(condition, 0, left);
+                replaceChild(condition, 1, right);
+                boolean and = condition.getValue().equals("and");
+                Boolean leftHolds = constantCondition(left);
+                Boolean rightHolds = constantCondition(right);
+                // A side that decides the result makes the other one irrelevant, a neutral side drops out
+                if (leftHolds != null) {
+                    return leftHolds == and ? right : left;
+                }
+                if (rightHolds != null && rightHolds != and) {
+                    return right;
+                }
+                if (rightHolds != null) {
+                    return left;
+                }
+                return condition;
+            }
+            case "eq":
+            case "neq":
+            case "lt":
+            case "gt":
+            case "lte":
+            case "gte": {
+                if (children.size() != 2) {
+                    return condition;
+                }
+                replaceChild(condition, 0, foldExpression(children.get(0), facts, factScope, scope));
+                replaceChild(condition, 1, foldExpression(children.get(1), facts, factScope, scope));
+                Boolean holds = constantCondition(condition);
+                return holds != null ? truth(holds) : condition;
+            }
+            default:
+                return condition;
+        }
+    }
+
+    // The value of a comparison between two numbers, null if it depends on the node
+    private static Boolean constantCondition(ASTNode condition) {
+        List<ASTNode> children = condition.getChildren();
+        if (children.size() != 2 || !isNumber(children.get(0)) || !isNumber(children.get(1))) {
+            return null;
+        }
+        double a = numberOf(children.get(0));
+        double b = numberOf(children.get(1));
+        switch (condition.getValue()) {
+            case "eq":
+                return a == b;
+            case "neq":
+                return a != b;
+            case "lt":
+                return a < b;
+            case "gt":
+                return a > b;
+            case "lte":
+                return a <= b;
+            case "gte":
+                return a >= b;
+            default:
+                return null;
+        }
+    }
+
+    private static ASTNode truth(boolean holds) {
+        ASTNode condition = new ASTNode(holds ? "eq" : "neq", ASTNode.NodeType.SYMBOL);
+        condition.addChild(number(0.0));
+        condition.addChild(number(0.0));
+        return condition;
+    }
+
+    // Records the variables an (eq variable number) test pins down, also under and
+    private static void addFacts(ASTNode condition, Map<String, Double> facts) {
+        List<ASTNode> children = condition.getChildren();
+        if (condition.getValue().equals("and") && children.size() == 2) {
+            addFacts(children.get(0), facts);
+            addFacts(children.get(1), facts);
+        } else if (condition.getValue().equals("eq") && children.size() == 2) {
+            ASTNode left = children.get(0);
+            ASTNode right = children.get(1);
+            if (isVariable(left) && isNumber(right)) {
+                facts.put(left.getValue(), numberOf(right));
+            } else if (isVariable(right) && isNumber(left)) {
+                facts.put(right.getValue(), numberOf(left));
+            }
+        }
+    }
+
+    private static boolean isVariable(ASTNode leaf) {
+        return leaf.getChildren().isEmpty() && leaf.getType() == ASTNode.NodeType.SYMBOL
+                && !KEYWORD_VALUES.containsKey(leaf.getValue()) && !isNumber(leaf);
+    }
+
+    private static boolean isNumber(ASTNode node) {
+        if (!node.getChildren().isEmpty()) {
+            return false;
+        }
+        try {
+            Double.parseDouble(node.getValue());
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static double numberOf(ASTNode leaf) {
+        return Double.parseDouble(leaf.getValue());
+    }
+
+    private static ASTNode number(double value) {
+        return new ASTNode(Double.toString(value), ASTNode.NodeType.NUMBER);
+    }
+
+    /**
+     * Makes repeated subexpressions of one expression or condition the same ASTNode. Only pure
+     * subtrees are shared, since an external function may return a new value on every call, and
+     * only between occurrences evaluated on the same node, which the Parent depth in the key ensures.
+     */
+    private static void shareCommonSubexpressions(ASTNode root) {
+        if (root.getValue().equals("and") || root.getValue().equals("or")) {
+            // The second operand may be skipped, so values are only shared within one comparison
+            for (ASTNode child : root.getChildren()) {
+                shareCommonSubexpressions(child);
+            }
+            return;
+        }
+        shareCommonSubexpressions(root, 0, new HashMap<>());
+    }
+
+    private static void shareCommonSubexpressions(ASTNode node, int scope, Map<String, ASTNode> seen) {
+        List<ASTNode> children = node.getChildren();
+        int childScope = node.getValue().equals("Parent") ? scope + 1 : scope;
+        for (int i = 0; i < children.size(); i++) {
+            ASTNode child = children.get(i);
+            if (child.getChildren().isEmpty() || !isPure(child)) {
+                shareCommonSubexpressions(child, childScope, seen);
+                continue;
+            }
+            String key = childScope + ":" + child.toSADLString();
+            ASTNode shared = seen.get(key);
+            if (shared != null) {
+                children.set(i, shared);
+            } else {
+                seen.put(key, child);
+                shareCommonSubexpressions(child, childScope, seen);
+            }
+        }
+    }
+
+    private static boolean isPure(ASTNode expression) {
+        if (expression.getValue().equals("ExternalFunction")) {
+            return false;
+        }
+        for (ASTNode child : expression.getChildren()) {
+            if (!isPure(child)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Only statements the Compiler accepts are dropped, so optimizing never hides a compile error
+    private static boolean isWellFormed(ASTNode statement) {
+        List<ASTNode> children = statement.getChildren();
+        switch (statement.getValue()) {
+            case "Set":
+            case "SelectNode":
+                return children.size() == 2 && isWellFormedExpression(children.get(1));
+            case "Condition":
+                if (children.isEmpty() || !isWellFormedCondition(children.get(0))) {
+                    return false;
+                }
+                for (ASTNode child : children.subList(1, children.size())) {
+                    if (!isWellFormed(child)) {
+                        return false;
+                    }
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isWellFormedCondition(ASTNode condition) {
+        List<ASTNode> children = condition.getChildren();
+        switch (condition.getValue()) {
+            case "and":
+            case "or":
+                return children.size() == 2 && isWellFormedCondition(children.get(0)) && isWellFormedCondition(children.get(1));
+            case "eq":
+            case "neq":
+            case "lt":
+            case "gt":
+            case "lte":
+            case "gte":
+                return children.size() == 2 && isWellFormedExpression(children.get(0)) && isWellFormedExpression(children.get(1));
+            default:
+                return true;
+        }
+    }
+
+    private static boolean isWellFormedExpression(ASTNode expression) {
+        List<ASTNode> children = expression.getChildren();
+        int arity;
+        switch (expression.getValue()) {
+            case "+":
+            case "-":
+            case "*":
+            case "/":
+            case "Aggregate":
+                arity = 2;
+                break;
+            case "sqrt":
+            case "log":
+            case "Parent":
+            case "ExternalFunction":
+                arity = 1;
+                break;
+            case "Condition":
+                return children.size() == 2 && isWellFormedExpression(children.get(1));
+            default:
+                arity = 0;
+        }
+        if (children.size() < arity) {
+            return false;
+        }
+        for (ASTNode child : children) {
+            if (!isWellFormedExpression(child)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,281 @@
+package parser;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Evaluates a SelectNode score over all children of an arena node at once, one operator at a
+ * time over the contiguous child block, instead of the whole expression once per child.
+ * Each operator is a plain counted loop over double arrays, which HotSpot's superword pass
+ * turns into SIMD instructions. Only scores made of arithmetic, sqrt, log, child attributes
+ * and child invariants have a kernel; the invariants, such as (log (Parent visitCount)), are
+ * evaluated once per call by their closures and broadcast.
+ * Results equal the closures bit for bit, so the argmax/argmin picks the same children.
+ */
+final class SelectionKernel {
+    // One array per register, a binary operator keeps its result in its left operand's register
+    private static final ThreadLocal<double[][]> REGISTERS = ThreadLocal.withInitial(() -> new double[0][]);
+
+    private final boolean argmax;
+    private final Lanes score;
+    private final int numRegisters;
+
+    private SelectionKernel(boolean argmax, Lanes score, int numRegisters) {
+        this.argmax = argmax;
+        this.score = score;
+        this.numRegisters = numRegisters;
+    }
+
+    // Returns null when the score reads anything the kernel cannot evaluate lane-wise
+    static SelectionKernel compile(String function, ASTNode score) {
+        if (!function.equals("argmax") && !function.equals("argmin")) {
+            return null;
+        }
+        int[] numRegisters = {0};
+        Lanes lanes = lanes(score, 0, numRegisters);
+        if (lanes == null) {
+            return null;
+        }
+        return new SelectionKernel(function.equals("argmax"), lanes, Math.max(numRegisters[0], 1));
+    }
+
+    private static Lanes lanes(ASTNode expression, int register, int[] numRegisters) {
+        numRegisters[0] = Math.max(numRegisters[0], register + 1);
+        List<ASTNode> children = expression.getChildren();
+        if (!children.isEmpty() && ExpressionCompiler.isChildInvariant(expression, 0)) {
+            return new Invariant(register, ExpressionCompiler.compile(expression));
+        }
+        switch (expression.getValue()) {
+            case "+":
+            case "-":
+            case "*":
+            case "/": {
+                Lanes left = lanes(children.get(0), register, numRegisters);
+                Lanes right = lanes(children.get(1), register + 1, numRegisters);
+                return left != null && right != null ? new Binary(register, expression.getValue().charAt(0), left, right) : null;
+            }
+            case "sqrt":
+            case "log": {
+                Lanes operand = lanes(children.get(0), register, numRegisters);
+                return operand != null ? new Unary(register, expression.getValue().equals("sqrt"), operand) : null;
+            }
+            default:
+                if (!children.isEmpty()) {
+                    return null;
+                }
+                if (expression.getSlot() >= 0) {
+                    return new Column(register, expression.getSlot());
+                }
+                // Constants and keywords are child invariants, anything else is only known by name at runtime
+                return ExpressionCompiler.isChildInvariant(expression, 0)
+                        ? new Invariant(register, ExpressionCompiler.compile(expression)) : null;
+        }
+    }
+
+    /**
+     * Selects among the children of a node with the same random tie-breaking as the loop of
+     * ExecutableSelectNode, returning -1 when no score compares, i.e. all are NaN.
+     */
+    int select(TreeArena tree, int firstChild, int numChildren) {
+        double[][] registers = REGISTERS.get();
+        if (registers.length < numRegisters || registers[0].length < numChildren) {
+            registers = new double[Math.max(numRegisters, registers.length)][Math.max(numChildren, registers.length > 0 ? registers[0].length : 0)];
+            REGISTERS.set(registers);
+        }
+        score.evaluate(registers, tree, firstChild, numChildren);
+        double[] values = registers[score.register];
+
+        int bestChild = -1;
+        double bestValue = argmax ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        int numBestFound = 0;
+        for (int i = 0; i < numChildren; i++) {
+            double value = values[i];
+            if ((argmax && value > bestValue) || (!argmax && value < bestValue)) {
+                bestValue = value;
+                bestChild = firstChild + i;
+                numBestFound = 1;
+            } else if (value == bestValue) {
+                // Random tie-breaking
+                if (ThreadLocalRandom.current().nextInt() % ++numBestFound == 0) {
+                    bestChild = firstChild + i;
+                }
+            }
+        }
+        return bestChild;
+    }
+
+    // A subexpression that is either one value for all children, or one value per child in its register
+    private abstract static class Lanes {
+        final int register;
+
+        Lanes(int register) {
+            this.register = register;
+        }
+
+        abstract void evaluate(double[][] registers, TreeArena tree, int firstChild, int numChildren);
+    }
+
+    private static final class Invariant extends Lanes {
+        final CompiledExpression expression;
+
+        Invariant(int register, CompiledExpression expression) {
+            super(register);
+            this.expression = expression;
+        }
+
+        // Evaluated on the first child, whose parent is the selecting node since an arena is a tree
+        double scalar(TreeArena tree, int firstChild) {
+            return expression.evaluate(tree, firstChild);
+        }
+
+        // Only reached when the whole score is invariant
+        @Override
+        void evaluate(double[][] registers, TreeArena tree, int firstChild, int numChildren) {
+            Arrays.fill(registers[register], 0, numChildren, scalar(tree, firstChild));
+        }
+    }
+
+    private static final class Column extends Lanes {
+        final int slot;
+
+        Column(int register, int slot) {
+            super(register);
+            this.slot = slot;
+        }
+
+        @Override
+        void evaluate(double[][] registers, TreeArena tree, int firstChild, int numChildren) {
+            System.arraycopy(tree.getColumn(slot), firstChild, registers[register], 0, numChildren);
+        }
+    }
+
+    private static final class Unary extends Lanes {
+        final boolean sqrt; // otherwise log
+        final Lanes operand;
+
+        Unary(int register, boolean sqrt, Lanes operand) {
+            super(register);
+            this.sqrt = sqrt;
+            this.operand = operand;
+        }
+
+        @Override
+        void evaluate(double[][] registers, TreeArena tree, int firstChild, int numChildren) {
+            operand.evaluate(registers, tree, firstChild, numChildren);
+            double[] values = registers[register];
+            if (sqrt) {
+                for (int i = 0; i < numChildren; i++) {
+                    values[i] = Math.sqrt(values[i]);
+                }
+            } else {
+                for (int i = 0; i < numChildren; i++) {
+                    values[i] = Math.log(values[i]);
+                }
+            }
+        }
+    }
+
+    // Division by zero divides by 1, as in the closures
+    private static final class Binary extends Lanes {
+        final char operator;
+        final Lanes left;
+        final Lanes right;
+
+        Binary(int register, char operator, Lanes left, Lanes right) {
+            super(register);
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        void evaluate(double[][] registers, TreeArena tree, int firstChild, int numChildren) {
+            double[] out = registers[register];
+            if (left instanceof Invariant) {
+                right.evaluate(registers, tree, firstChild, numChildren);
+                scalarLeft(operator, ((Invariant) left).scalar(tree, firstChild), registers[right.register], out, numChildren);
+            } else if (right instanceof Invariant) {
+                left.evaluate(registers, tree, firstChild, numChildren);
+                scalarRight(operator, out, ((Invariant) right).scalar(tree, firstChild), numChildren);
+            } else {
+                left.evaluate(registers, tree, firstChild, numChildren);
+                right.evaluate(registers, tree, firstChild, numChildren);
+                lanes(operator, out, registers[right.register], numChildren);
+            }
+        }
+
+        private static void lanes(char operator, double[] a, double[] b, int n) {
+            switch (operator) {
+                case '+':
+                    for (int i = 0; i < n; i++) {
+                        a[i] = a[i] + b[i];
+                    }
+                    break;
+                case '-':
+                    for (int i = 0; i < n; i++) {
+                        a[i] = a[i] - b[i];
+                    }
+                    break;
+                case '*':
+                    for (int i = 0; i < n; i++) {
+                        a[i] = a[i] * b[i];
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < n; i++) {
+                        a[i] = a[i] / (b[i] == 0 ? 1 : b[i]);
+                    }
+            }
+        }
+
+        private static void scalarRight(char operator, double[] a, double b, int n) {
+            switch (operator) {
+                case '+':
+                    for (int i = 0; i < n; i++) {
+                        a[i] = a[i] + b;
+                    }
+                    break;
+                case '-':
+                    for (int i = 0; i < n; i++) {
+                        a[i] = a[i] - b;
+                    }
+                    break;
+                case '*':
+                    for (int i = 0; i < n; i++) {
+                        a[i] = a[i] * b;
+                    }
+                    break;
+                default:
+                    double divisor = b == 0 ? 1 : b;
+                    for (int i = 0; i < n; i++) {
+                        a[i] = a[i] / divisor;
+                    }
+            }
+        }
+
+        private static void scalarLeft(char operator, double a, double[] b, double[] out, int n) {
+            switch (operator) {
+                case '+':
+                    for (int i = 0; i < n; i++) {
+                        out[i] = a + b[i];
+                    }
+                    break;
+                case '-':
+                    for (int i = 0; i < n; i++) {
+                        out[i] = a - b[i];
+                    }
+                    break;
+                case '*':
+                    for (int i = 0; i < n; i++) {
+                        out[i] = a * b[i];
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < n; i++) {
+                        out[i] = a / (b[i] == 0 ? 1 : b[i]);
+                    }
+            }
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package parser;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import other.context.Context;
+import other.move.Move;
+
+/**
+ * Struct-of-arrays search tree. Nodes are int indices into growable primitive columns
+ * instead of separate objects, and the children of a node occupy one contiguous block
+ * starting at firstChild. Attribute values live in one column per AttributeLayout slot.
+ * Nodes that get children also get a block with the ChildAggregates state of the declared
+ * aggregates, so leaves do not pay for it. Memoized expression values are kept per node
+ * with the modification stamp they were computed at.
+ */
+public class TreeArena {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int ARRAY_HEADER_BYTES = 16;
+
+    private final AttributeLayout layout;
+    private final VariableFrame frame;
+    private final Integer playerId;
+
+    private int[] parent;
+    private int[] firstChild;
+    private int[] childCount;
+    private int[] depth;
+    private double[][] columns;
+    private final int numAggregates; // declared when the arena was created, later ones are not cached
+    private int[] aggregateBlock; // -1 until the node gets children
+    private double[] aggregates;
+    private int numAggregateBlocks;
+    private final int numMemos; // declared when the arena was created, later ones are evaluated every time
+    private int[] stamps;
+    private double[] memos;
+    private Context[] contexts;
+    private Move[] moves;
+    private byte[] terminal; // cached trial().over(), -1 while unknown
+    private boolean[] checkpoints;
+    private int size;
+
+    public TreeArena(AttributeLayout layout, Integer playerId) {
+        this(layout, playerId, new VariableFrame());
+    }
+
+    private TreeArena(AttributeLayout layout, Integer playerId, VariableFrame frame) {
+        this.layout = layout;
+        this.playerId = playerId;
+        this.frame = frame;
+        this.parent = new int[INITIAL_CAPACITY];
+        this.firstChild = new int[INITIAL_CAPACITY];
+        this.childCount = new int[INITIAL_CAPACITY];
+        this.depth = new int[INITIAL_CAPACITY];
+        this.columns = new double[layout.size()][INITIAL_CAPACITY];
+        this.numAggregates = layout.numAggregates();
+        this.aggregateBlock = new int[INITIAL_CAPACITY];
+        this.aggregates = new double[numAggregates * ChildAggregates.STRIDE];
+        this.numMemos = layout.numMemos();
+        this.stamps = new int[INITIAL_CAPACITY];
+        this.memos = new double[INITIAL_CAPACITY * numMemos * AttributeLayout.MEMO_STRIDE];
+        this.contexts = new Context[INITIAL_CAPACITY];
+        this.moves = new Move[INITIAL_CAPACITY];
+        this.terminal = new byte[INITIAL_CAPACITY];
+        this.checkpoints = new boolean[INITIAL_CAPACITY];
+    }
+
+    public int addRoot(Context context) {
+        int root = allocate(1);
+        parent[root] = -1;
+        depth[root] = 0;
+        setState(root, context, null);
+        return root;
+    }
+
+    // Reserves a contiguous block of children below the given node and returns the first index
+    public int addChildren(int node, int count) {
+        int first = allocate(count);
+        for (int child = first; child < first + count; child++) {
+            parent[child] = node;
+            depth[child] = depth[node] + 1;
+        }
+        firstChild[node] = first;
+        childCount[node] = count;
+        if (numAggregates > 0 && aggregateBlock[node] < 0) {
+            int width = numAggregates * ChildAggregates.STRIDE;
+            if ((numAggregateBlocks + 1) * width > aggregates.length) {
+                aggregates = Arrays.copyOf(aggregates, Math.max(width, aggregates.length * 2));
+            }
+            aggregateBlock[node] = numAggregateBlocks++;
+        }
+        for (int aggregate = 0; aggregate < numAggregates; aggregate++) {
+            int operation = layout.aggregateOperation(aggregate);
+            int offset = aggregateOffset(node, aggregate);
+            double defaultValue = layout.defaultValue(layout.aggregateSlot(aggregate));
+            ChildAggregates.reset(operation, aggregates, offset);
+            for (int i = 0; i < count; i++) {
+                ChildAggregates.add(operation, aggregates, offset, defaultValue);
+            }
+        }
+        return first;
+    }
+
+    public void setState(int node, Context context, Move moveFromParent) {
+        contexts[node] = context;
+        moves[node] = moveFromParent;
+        terminal[node] = (byte) (context.trial().over() ? 1 : 0);
+        setValue(node, AttributeLayout.NODE_TYPE, LudiiNode.determineNodeType(context, playerId).equals("orNode") ? 0.0 : 1.0);
+    }
+
+    // Unexpanded child: the context is only built from the parent's when first requested.
+    // Until then the node type is taken to be the opposite of the parent's, which passes and
+    // repeated moves by one player break, so it is determined again once the context is built.
+    public void setStub(int node, Move moveFromParent) {
+        moves[node] = moveFromParent;
+        terminal[node] = -1;
+        setValue(node, AttributeLayout.NODE_TYPE, 1.0 - columns[AttributeLayout.NODE_TYPE][parent[node]]);
+    }
+
+    // Copies the subtree below node into a new arena rooted at index 0, with the context of the actual game.
+    // Blocks of pruned children are left behind, so this also compacts the tree.
+    public TreeArena extractSubtree(int node, Context rootContext) {
+        TreeArena subtree = new TreeArena(layout, playerId, frame);
+        int[] source = new int[size];
+        int root = subtree.allocate(1);
+        source[root] = node;
+        subtree.copyNode(this, node, root);
+        subtree.parent[root] = -1;
+        subtree.depth[root] = 0;
+        subtree.setState(root, rootContext, moves[node]);
+
+        for (int copy = 0; copy < subtree.size; copy++) {
+            int original = source[copy];
+            int count = childCount[original];
+            if (count == 0) {
+                continue;
+            }
+            int first = subtree.addChildren(copy, count);
+            for (int i = 0; i < count; i++) {
+                source[first + i] = firstChild[original] + i;
+                subtree.copyNode(this, firstChild[original] + i, first + i);
+            }
+        }
+        // Every copy has the same children with the same values as its original, so also the same aggregates
+        int width = numAggregates * ChildAggregates.STRIDE;
+        for (int copy = 0; copy < subtree.size && width > 0 && subtree.numAggregates == numAggregates; copy++) {
+            if (subtree.childCount[copy] > 0) {
+                System.arraycopy(aggregates, aggregateBlock[source[copy]] * width,
+                        subtree.aggregates, subtree.aggregateBlock[copy] * width, width);
+            }
+        }
+        return subtree;
+    }
+
+    private void copyNode(TreeArena from, int node, int copy) {
+        for (int slot = 0; slot < from.columns.length; slot++) {
+            columns[slot][copy] = from.columns[slot][node];
+        }
+        contexts[copy] = from.contexts[node];
+        moves[copy] = from.moves[node];
+        terminal[copy] = from.terminal[node];
+        checkpoints[copy] = from.checkpoints[node];
+    }
+
+    private int allocate(int count) {
+        if (size + count > parent.length) {
+            grow(Math.max(size + count, parent.length * 2));
+        }
+        int first = size;
+        for (int slot = 0; slot < columns.length; slot++) {
+            double defaultValue = layout.defaultValue(slot);
+            double[] column = columns[slot];
+            for (int node = first; node < first + count; node++) {
+                column[node] = defaultValue;
+            }
+        }
+        Arrays.fill(aggregateBlock, first, first + count, -1);
+        for (int offset = first * numMemos * AttributeLayout.MEMO_STRIDE; offset < (first + count) * numMemos * AttributeLayout.MEMO_STRIDE;
+                offset += AttributeLayout.MEMO_STRIDE) {
+            memos[offset + 1] = -1;
+        }
+        size += count;
+        return first;
+    }
+
+    private void grow(int capacity) {
+        parent = Arrays.copyOf(parent, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        childCount = Arrays.copyOf(childCount, capacity);
+        depth = Arrays.copyOf(depth, capacity);
+        for (int slot = 0; slot < columns.length; slot++) {
+            columns[slot] = Arrays.copyOf(columns[slot], capacity);
+        }
+        contexts = Arrays.copyOf(contexts, capacity);
+        moves = Arrays.copyOf(moves, capacity);
+        terminal = Arrays.copyOf(terminal, capacity);
+        checkpoints = Arrays.copyOf(checkpoints, capacity);
+        aggregateBlock = Arrays.copyOf(aggregateBlock, capacity);
+        stamps = Arrays.copyOf(stamps, capacity);
+        memos = Arrays.copyOf(memos, capacity * numMemos * AttributeLayout.MEMO_STRIDE);
+    }
+
+    public int getParent(int node) {
+        return parent[node];
+    }
+
+    public int getFirstChild(int node) {
+        return firstChild[node];
+    }
+
+    public int getChildCount(int node) {
+        return childCount[node];
+    }
+
+    // The block stays allocated, pruned subtrees are only reclaimed with the whole arena
+    public void clearChildren(int node) {
+        childCount[node] = 0;
+        for (int aggregate = 0; aggregate < numAggregates && aggregateBlock[node] >= 0; aggregate++) {
+            ChildAggregates.reset(layout.aggregateOperation(aggregate), aggregates, aggregateOffset(node, aggregate));
+        }
+    }
+
+    public int getDepth(int node) {
+        return depth[node];
+    }
+
+    public double getValue(int node, int slot) {
+        return columns[slot][node];
+    }
+
+    // See Node.getProofNumber
+    public double getProofNumber(int node) {
+        int slot = layout.proofNumberSlot();
+        return slot >= 0 ? columns[slot][node] : layout.defaultValue("proofNumber");
+    }
+
+    public double getDisproofNumber(int node) {
+        int slot = layout.disproofNumberSlot();
+        return slot >= 0 ? columns[slot][node] : layout.defaultValue("disproofNumber");
+    }
+
+    public void setValue(int node, int slot, double value) {
+        double[] column = columns[slot];
+        double previous = column[node];
+        column[node] = value;
+        if (Double.compare(previous, value) == 0) {
+            return;
+        }
+        if (layout.isMemoInput(slot)) {
+            stamps[node]++;
+        }
+        if (numAggregates > 0) {
+            int[] aggregated = layout.aggregatesOf(slot);
+            int parentNode = parent[node];
+            // Nodes of a pruned block no longer count for their parent
+            if (aggregated != null && parentNode >= 0 && node >= firstChild[parentNode]
+                    && node < firstChild[parentNode] + childCount[parentNode]) {
+                for (int aggregate : aggregated) {
+                    if (aggregate < numAggregates) {
+                        ChildAggregates.replace(layout.aggregateOperation(aggregate), aggregates,
+                                aggregateOffset(parentNode, aggregate), previous, value);
+                    }
+                }
+            }
+        }
+    }
+
+    // Value of a memoized expression on a node, see Node.memoized
+    double memoized(int node, int memo, CompiledExpression expression) {
+        if (memo >= numMemos) {
+            return expression.evaluate(this, node);
+        }
+        int offset = (node * numMemos + memo) * AttributeLayout.MEMO_STRIDE;
+        if (memos[offset + 1] == stamps[node]) {
+            return memos[offset];
+        }
+        double value = expression.evaluate(this, node);
+        memos[offset] = value;
+        memos[offset + 1] = stamps[node];
+        return value;
+    }
+
+    /**
+     * Value of a declared aggregate over the children of a node, see Node.getAggregate.
+     * Pruned blocks still hold values, so a stale cache is rebuilt only from the live children.
+     */
+    public double getAggregate(int node, int aggregate) {
+        int slot = layout.aggregateSlot(aggregate);
+        double[] column = columns[slot];
+        int numChildren = childCount[node];
+        if (numChildren == 0) {
+            return column[node];
+        }
+        int operation = layout.aggregateOperation(aggregate);
+        boolean cached = aggregate < numAggregates;
+        int offset = cached ? aggregateOffset(node, aggregate) : -1;
+        if (cached) {
+            if (ChildAggregates.isValid(aggregates, offset)) {
+                return ChildAggregates.value(operation, aggregates, offset, numChildren);
+            }
+            ChildAggregates.reset(operation, aggregates, offset);
+        }
+        double result = ChildAggregates.identity(operation);
+        int from = firstChild[node];
+        for (int child = from; child < from + numChildren; child++) {
+            result = ChildAggregates.combine(operation, result, column[child]);
+            if (cached) {
+                ChildAggregates.add(operation, aggregates, offset, column[child]);
+            }
+        }
+        return ChildAggregates.finish(operation, result, numChildren);
+    }
+
+    private int aggregateOffset(int node, int aggregate) {
+        return (aggregateBlock[node] * numAggregates + aggregate) * ChildAggregates.STRIDE;
+    }
+
+    // Contiguous values of one attribute, children of a node are at [firstChild, firstChild + childCount)
+    public double[] getColumn(int slot) {
+        return columns[slot];
+    }
+
+    // Rebuilds a missing context by replaying moves from the nearest ancestor that still holds one
+    public Context getContext(int node) {
+        Context context = contexts[node];
+        if (context == null) {
+            Deque<Move> replay = new ArrayDeque<>();
+            int ancestor = node;
+            while (contexts[ancestor] == null) {
+                replay.push(moves[ancestor]);
+                ancestor = parent[ancestor];
+            }
+            context = new Context(contexts[ancestor]);
+            while (!replay.isEmpty()) {
+                context.game().apply(context, replay.pop());
+            }
+            contexts[node] = context;
+            if (terminal[node] == -1) {
+                // First built for a stub, whose node type was only assumed
+                setValue(node, AttributeLayout.NODE_TYPE, LudiiNode.determineNodeType(context, playerId).equals("orNode") ? 0.0 : 1.0);
+            }
+            terminal[node] = (byte) (context.trial().over() ? 1 : 0);
+        }
+        return context;
+    }
+
+    // Drops the context so that it is rebuilt by move replay when needed again, the root always keeps its own
+    public void releaseContext(int node) {
+        if (parent[node] >= 0 && contexts[node] != null) {
+            terminal[node] = (byte) (contexts[node].trial().over() ? 1 : 0);
+            contexts[node] = null;
+        }
+    }
+
+    // A checkpoint keeps its context for move replay by its descendants
+    public void markCheckpoint(int node) {
+        checkpoints[node] = true;
+    }
+
+    public boolean isCheckpoint(int node) {
+        return checkpoints[node];
+    }
+
+    public boolean isTerminal(int node) {
+        if (terminal[node] < 0) {
+            getContext(node);
+        }
+        return terminal[node] == 1;
+    }
+
+    public Move getMove(int node) {
+        return moves[node];
+    }
+
+    public String getSearchId() {
+        return frame.getSearchId();
+    }
+
+    public VariableFrame getFrame() {
+        return frame;
+    }
+
+    public Integer getPlayerId() {
+        return playerId;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public GameState stateOf(int node) {
+        final Context context = getContext(node);
+        return new GameState() {
+            @Override
+            public Context getContext() {
+                return context;
+            }
+
+            @Override
+            public Integer getPlayerId() {
+                return playerId;
+            }
+        };
+    }
+
+    // Bytes held by the arena columns (Ludii contexts themselves are not included)
+    public long estimateBytes() {
+        long capacity = parent.length;
+        long bytes = 4L * (ARRAY_HEADER_BYTES + 4 * capacity);
+        bytes += ARRAY_HEADER_BYTES + 4L * columns.length;
+        bytes += columns.length * (ARRAY_HEADER_BYTES + 8 * capacity);
+        bytes += 2L * (ARRAY_HEADER_BYTES + 4 * capacity);
+        bytes += 2L * (ARRAY_HEADER_BYTES + capacity);
+        bytes += ARRAY_HEADER_BYTES + 4 * capacity;
+        bytes += ARRAY_HEADER_BYTES + 8L * aggregates.length;
+        bytes += ARRAY_HEADER_BYTES + 4 * capacity;
+        bytes += ARRAY_HEADER_BYTES + 8L * memos.length;
+        return bytes;
+    }
+}
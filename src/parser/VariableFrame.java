@@ -0,0 +1,91 @@
+package parser;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Values of the Defined globals of one search, at the index the Compiler gave each global.
+ * All nodes of a search tree share the frame of their root, so Sets and reads of a global
+ * are array accesses instead of lookups by name. While several threads
+ * search the same tree, each thread reads and Sets its own copy of the globals, and the nodes
+ * of the tree update their attributes atomically.
+ */
+public class VariableFrame {
+    private final String searchId;
+    private double[] values = new double[0];
+    private ThreadLocal<double[]> threadValues; // per-thread globals of a concurrent search, null otherwise
+    private AtomicInteger liveNodes; // of the tree during a concurrent search, null until counting starts
+    private AtomicInteger peakNodes;
+
+    public VariableFrame() {
+        this.searchId = UUID.randomUUID().toString();
+    }
+
+    public String getSearchId() {
+        return searchId;
+    }
+
+    // Starts a search from the Defined values, keeping the frame a reused tree already shares
+    public void reset(double[] initialValues) {
+        if (values.length == initialValues.length) {
+            System.arraycopy(initialValues, 0, values, 0, values.length);
+        } else {
+            values = initialValues.clone();
+        }
+    }
+
+    // Every thread starts from the current values, and Sets of one thread are not seen by the others.
+    // Switched before the threads start and after they have finished.
+    public void setConcurrent(boolean concurrent) {
+        if (concurrent) {
+            final double[] initialValues = values.clone();
+            threadValues = ThreadLocal.withInitial(initialValues::clone);
+        } else {
+            threadValues = null;
+        }
+    }
+
+    public boolean isConcurrent() {
+        return threadValues != null;
+    }
+
+    // Concurrent searches count the nodes of the tree here, as the threads add and clear children
+    public void startCountingNodes(int nodes) {
+        liveNodes = new AtomicInteger(nodes);
+        peakNodes = new AtomicInteger(nodes);
+    }
+
+    public void countNodes(int delta) {
+        if (liveNodes != null) {
+            int live = liveNodes.addAndGet(delta);
+            if (delta > 0) {
+                peakNodes.accumulateAndGet(live, Math::max);
+            }
+        }
+    }
+
+    public int getPeakNodes() {
+        return peakNodes != null ? peakNodes.get() : 0;
+    }
+
+    // The current thread's values, so that the globals one thread Set can be handed to another
+    public double[] copyValues() {
+        return (threadValues != null ? threadValues.get() : values).clone();
+    }
+
+    public void setValues(double[] source) {
+        System.arraycopy(source, 0, threadValues != null ? threadValues.get() : values, 0, source.length);
+    }
+
+    public double get(int index) {
+        return threadValues != null ? threadValues.get()[index] : values[index];
+    }
+
+    public void set(int index, double value) {
+        if (threadValues != null) {
+            threadValues.get()[index] = value;
+        } else {
+            values[index] = value;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package utils;
+
+/**
+ * An ExternalFunction of SADL, bound once by the Compiler. Returns a primitive double, so
+ * evaluation does not box. States are Nodes or, for the arena backend, parser.GameState views.
+ */
+@FunctionalInterface
+public interface EvalFunction<T> {
+    double evaluate(T state);
+
+    // The function configured by the constant argument of (ExternalFunction "name" node argument); functions that take
+    // an argument override it, so one given to any other is rejected when the algorithm is compiled
+    default EvalFunction<T> withArgument(double argument) {
+        throw new RuntimeException("External function takes no argument, got " + argument);
+    }
+}
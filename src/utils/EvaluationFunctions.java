@@ -3,30 +3,79 @@ package utils;
 import game.Game;
 import other.RankUtils;
 import other.context.Context;
-import parser.LudiiNode;
+import parser.GameState;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.function.Function;
 
 public class EvaluationFunctions {
-    // MCTS Evaluation (playout)
-    public static Function<LudiiNode, Double> mctsEval = (ludiiNode) -> {
-        Context context = ludiiNode.getContext();
-        Game game = context.game();
-
-        if (!context.trial().over()) {
-            context = new Context(context);
-            game.playout(context, null, -1.0, null, 0, -1, ThreadLocalRandom.current());
+    // MCTS Evaluation (playout), (ExternalFunction "mctsEval" node K) averages K leaf-parallel playouts
+    public static EvalFunction<GameState> mctsEval = new PlayoutEvaluation(1);
+
+    // mctsEval averaging the given number of playouts, for registering under a name of its own
+    public static EvalFunction<GameState> mctsEval(int playouts) {
+        return new PlayoutEvaluation(playouts);
+    }
+
+    /**
+     * Utility of random playouts from the state for its player. Several playouts run in parallel on the
+     * common ForkJoinPool, each from its own copy of the context, and their mean utility is returned;
+     * the calling thread runs one of them itself. The state's context is only read.
+     */
+    private static final class PlayoutEvaluation implements EvalFunction<GameState> {
+        private final int playouts;
+
+        private PlayoutEvaluation(int playouts) {
+            if (playouts < 1) {
+                throw new RuntimeException("mctsEval needs at least one playout, not " + playouts);
+            }
+            this.playouts = playouts;
+        }
+
+        @Override
+        public double evaluate(GameState state) {
+            final Context context = state.getContext();
+            final int player = state.getPlayerId();
+            if (playouts == 1 || context.trial().over()) {
+                return playout(context, player);
+            }
+
+            List<ForkJoinTask<Double>> tasks = new ArrayList<>(playouts - 1);
+            for (int i = 1; i < playouts; i++) {
+                tasks.add(ForkJoinTask.adapt(() -> playout(context, player)).fork());
+            }
+            double sum = playout(context, player);
+            for (ForkJoinTask<Double> task : tasks) {
+                sum += task.join();
+            }
+            return sum / playouts;
         }
 
-        double[] utilities = RankUtils.utilities(context);
-        return utilities[ludiiNode.getPlayerId()];
-    };
+        @Override
+        public EvalFunction<GameState> withArgument(double argument) {
+            if (argument != Math.rint(argument)) {
+                throw new RuntimeException("mctsEval needs a whole number of playouts, not " + argument);
+            }
+            return new PlayoutEvaluation((int) argument);
+        }
+
+        private static double playout(Context context, int player) {
+            if (!context.trial().over()) {
+                Game game = context.game();
+                context = new Context(context);
+                game.playout(context, null, -1.0, null, 0, -1, ThreadLocalRandom.current());
+            }
+            return RankUtils.utilities(context)[player];
+        }
+    }
 
     // PNS Evaluation
-    public static Function<LudiiNode, Double> pnsEval = (ludiiNode) -> {
-        Context context = ludiiNode.getContext();
-        int proofPlayer = ludiiNode.getPlayerId();
+    public static EvalFunction<GameState> pnsEval = (state) -> proofValue(state.getContext(), state.getPlayerId());
+
+    // Terminal check shared by the PNS variants: 1 if proofPlayer has won, 0 if the game is over otherwise, -1 if not over
+    public static double proofValue(Context context, int proofPlayer) {
         double bestPossibleRank = 1.0;
         double worstPossibleRank = 2.0;
 
@@ -36,5 +85,5 @@ public class EvaluationFunctions {
 //            return rank == bestPossibleRank || rank != worstPossibleRank ? 1.0 : 0.0; // allow draw
         }
         return -1.0;
-    };
+    }
 }
\ No newline at end of file
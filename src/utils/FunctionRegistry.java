@@ -2,23 +2,22 @@ package utils;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.function.Function;
-
-import parser.Node;
 
 public class FunctionRegistry {
-    private static final Map<String, Function<? extends Node<?>, Double>> evalFunctions = new HashMap<>();
+    // Functions are applied to Nodes or, for the arena backend, to parser.GameState views.
+    // The Compiler binds them, so they must be registered before the algorithms using them are compiled.
+    private static final Map<String, EvalFunction<?>> evalFunctions = new HashMap<>();
 
-    public static <T extends Node<T>> void setEvalFunction(String name, Function<T, Double> function) {
+    public static <T> void setEvalFunction(String name, EvalFunction<T> function) {
         evalFunctions.put(name, function);
     }
 
     @SuppressWarnings("unchecked")
-    public static <T extends Node<T>> Function<T, Double> getEvalFunction(String name) {
-        return (Function<T, Double>) evalFunctions.get(name);
+    public static <T> EvalFunction<T> getEvalFunction(String name) {
+        return (EvalFunction<T>) evalFunctions.get(name);
     }
 
     public static boolean hasEvalFunction(String name) {
         return evalFunctions.containsKey(name);
     }
-}
\ No newline at end of file
+}
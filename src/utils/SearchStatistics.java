@@ -5,6 +5,8 @@ import evolution.LogManager;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -14,6 +16,7 @@ import java.util.logging.Logger;
 public class SearchStatistics {
     private static final Logger logger = LogManager.getStatsLogger();
     private static final Map<String, AlgorithmStats> statsMap = new ConcurrentHashMap<>();
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
 
     public static class AlgorithmStats {
         private final String algorithmName;
@@ -21,6 +24,15 @@ public class SearchStatistics {
         private final AtomicLong uniqueNodes = new AtomicLong(0);
         private final AtomicLong totalTime = new AtomicLong(0);
         private final AtomicInteger searchCount = new AtomicInteger(0);
+        private final AtomicLong treeBytes = new AtomicLong(0);
+        private final AtomicLong treeNodes = new AtomicLong(0);
+        private final AtomicLong evictedSubtrees = new AtomicLong(0);
+        private final AtomicLong evictedNodes = new AtomicLong(0);
+        private final AtomicLong allocatedBytes = new AtomicLong(0);
+        private final AtomicInteger allocationSearches = new AtomicInteger(0);
+        private final AtomicLong peakNodesSum = new AtomicLong(0);
+        private final AtomicLong peakNodesMax = new AtomicLong(0);
+        private final AtomicInteger treeSearches = new AtomicInteger(0);
 
         public AlgorithmStats(String name) {
             this.algorithmName = name;
@@ -33,13 +45,49 @@ public class SearchStatistics {
             searchCount.incrementAndGet();
         }
 
+        public void addTreeSize(long bytes, long nodes) {
+            treeBytes.addAndGet(bytes);
+            treeNodes.addAndGet(nodes);
+            treeSearches.incrementAndGet();
+        }
+
+        public void addMemory(long allocated, long peakNodes) {
+            if (allocated >= 0) {
+                allocatedBytes.addAndGet(allocated);
+                allocationSearches.incrementAndGet();
+            }
+            peakNodesSum.addAndGet(peakNodes);
+            peakNodesMax.accumulateAndGet(peakNodes, Math::max);
+        }
+
+        public void addEvictions(long subtrees, long nodes) {
+            evictedSubtrees.addAndGet(subtrees);
+            evictedNodes.addAndGet(nodes);
+        }
+
         public String getStatsString() {
             double visitsPerSec = totalTime.get() > 0 ?
                     (totalVisits.get() * 1000.0) / totalTime.get() : 0;
             double nodesPerSec = totalTime.get() > 0 ?
                     (uniqueNodes.get() * 1000.0) / totalTime.get() : 0;
-            return String.format("%s: %.2f visits/sec (%.2f nodes/sec) over %d searches",
+            String stats = String.format("%s: %.2f visits/sec (%.2f nodes/sec) over %d searches",
                     algorithmName, visitsPerSec, nodesPerSec, searchCount.get());
+            if (treeNodes.get() > 0) {
+                stats += String.format(", %.1f bytes/node", (double) treeBytes.get() / treeNodes.get());
+            }
+            if (treeSearches.get() > 0) {
+                stats += String.format(", %.1f KB tree/search", treeBytes.get() / 1024.0 / treeSearches.get());
+            }
+            if (allocationSearches.get() > 0) {
+                stats += String.format(", %.1f MB allocated/search", allocatedBytes.get() / (1024.0 * 1024.0) / allocationSearches.get());
+            }
+            if (peakNodesMax.get() > 0) {
+                stats += String.format(", peak %d nodes (%.0f avg)", peakNodesMax.get(), (double) peakNodesSum.get() / searchCount.get());
+            }
+            if (evictedSubtrees.get() > 0) {
+                stats += String.format(", %d subtrees (%d nodes) evicted", evictedSubtrees.get(), evictedNodes.get());
+            }
+            return stats;
         }
     }
 
@@ -48,6 +96,40 @@ public class SearchStatistics {
                 .addSearch(visits, nodes, timeMs);
     }
 
+    // treeBytes is the estimated size of the final tree (excluding Ludii contexts) holding treeNodes nodes
+    public static void recordSearch(String algoName, long visits, long nodes, long timeMs, long treeBytes, long treeNodes) {
+        AlgorithmStats stats = statsMap.computeIfAbsent(algoName, AlgorithmStats::new);
+        stats.addSearch(visits, nodes, timeMs);
+        stats.addTreeSize(treeBytes, treeNodes);
+    }
+
+    // allocatedBytes is what the searching thread allocated during the search (-1 if unknown),
+    // peakNodes the largest number of nodes held at once
+    public static void recordSearch(String algoName, long visits, long nodes, long timeMs, long treeBytes, long treeNodes,
+                                    long allocatedBytes, long peakNodes) {
+        AlgorithmStats stats = statsMap.computeIfAbsent(algoName, AlgorithmStats::new);
+        stats.addSearch(visits, nodes, timeMs);
+        stats.addTreeSize(treeBytes, treeNodes);
+        stats.addMemory(allocatedBytes, peakNodes);
+    }
+
+    // Bytes allocated so far by the calling thread, or -1 if the JVM does not track it
+    public static long currentThreadAllocatedBytes() {
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+            if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+                return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    // Subtrees dropped by a node-budgeted search, nodes counts everything below the evicted nodes
+    public static void recordEvictions(String algoName, long subtrees, long nodes) {
+        statsMap.computeIfAbsent(algoName, AlgorithmStats::new)
+                .addEvictions(subtrees, nodes);
+    }
+
     public static void writeCurrentStats(double maxSeconds, String gameVariant) {
         synchronized(statsMap) {
             StringBuilder sb = new StringBuilder();